@@ -0,0 +1,105 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import data.NoteMatrix;
+import jm.music.data.Score;
+import jm.util.Read;
+
+/**
+ * @author Benjamin Henshall
+ *
+ *         Class used by the benchmarks to read the bundled MIDI files. The
+ *         folder can be changed with -Djmusic.corpus=path, and defaults to the
+ *         example files when run from the benchmarks folder.
+ */
+public class Corpus {
+
+	private static final String DEFAULT_FOLDER = "../../Example MIDI files";
+
+	/*
+	 * Reads every MIDI file in the corpus folder
+	 */
+	public static Score[] readScores() {
+		File[] files = findFiles();
+		Score[] scores = new Score[files.length];
+		for (int i = 0; i < files.length; i++) {
+			scores[i] = new Score();
+			Read.midi(scores[i], files[i].getAbsolutePath());
+		}
+		return scores;
+	}
+
+	/*
+	 * Reads the raw bytes of every MIDI file in the corpus folder
+	 */
+	public static byte[][] readContents() {
+		File[] files = findFiles();
+		byte[][] contents = new byte[files.length][];
+		try {
+			for (int i = 0; i < files.length; i++) {
+				contents[i] = Files.readAllBytes(files[i].toPath());
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not read corpus", e);
+		}
+		return contents;
+	}
+
+	/*
+	 * Finds every MIDI file in the corpus folder
+	 */
+	private static File[] findFiles() {
+		File folder = new File(System.getProperty("jmusic.corpus", DEFAULT_FOLDER));
+		File[] files = folder.listFiles();
+		if (files == null) {
+			throw new IllegalStateException("Corpus not found: " + folder.getAbsolutePath());
+		}
+
+		ArrayList<File> midiFiles = new ArrayList<File>();
+		for (File file : files) {
+			if (file.getName().toLowerCase().endsWith(".mid")) {
+				midiFiles.add(file);
+			}
+		}
+		if (midiFiles.isEmpty()) {
+			throw new IllegalStateException("No MIDI files found in " + folder.getAbsolutePath());
+		}
+		return midiFiles.toArray(new File[midiFiles.size()]);
+	}
+
+	/*
+	 * Builds a matrix from the given scores, with its probabilities up to date
+	 */
+	public static NoteMatrix train(Score[] scores) {
+		NoteMatrix matrix = new NoteMatrix();
+		for (Score score : scores) {
+			matrix.addToMatrix(score);
+		}
+		matrix.updateProbabilities();
+		return matrix;
+	}
+
+	/*
+	 * Returns the chain that occurred most often, as {pitch1, pitch2}. Used
+	 * as the starting notes so generation spends its time in well populated
+	 * rows.
+	 */
+	public static int[] mostCommonChain(NoteMatrix matrix) {
+		int[] best = { 60, 60 };
+		int bestCount = -1;
+		for (int i = 0; i < 128; i++) {
+			for (int j = 0; j < 128; j++) {
+				int count = matrix.getNumOfNotesForChain(i, j);
+				if (count > bestCount) {
+					bestCount = count;
+					best = new int[] { i, j };
+				}
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,106 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import data.GenerationContext;
+import data.GenerationEngine;
+import data.MatrixRow;
+import data.NoteMatrix;
+import data.SplittableRandomSource;
+import jm.music.data.Note;
+import jm.music.data.Part;
+import jm.music.data.Phrase;
+import jm.music.data.Score;
+
+/**
+ * @author Benjamin Henshall
+ *
+ *         Benchmarks for picking notes: a single row picking its next note,
+ *         and the engine filling a whole bar.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenerationBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class ModelState {
+		GenerationEngine engine;
+		int[] firstNotes;
+
+		// Row of the most common chain, built from every note that follows
+		// that chain in the corpus
+		MatrixRow row;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			Score[] scores = Corpus.readScores();
+			NoteMatrix matrix = Corpus.train(scores);
+			engine = new GenerationEngine(matrix);
+			firstNotes = Corpus.mostCommonChain(matrix);
+
+			row = new MatrixRow();
+			for (Score score : scores) {
+				for (Part part : score.getPartArray()) {
+					for (Phrase phrase : part.getPhraseArray()) {
+						Note[] notes = phrase.getNoteArray();
+						for (int i = 2; i < notes.length; i++) {
+							if (notes[i - 2].getPitch() == firstNotes[0] && notes[i - 1].getPitch() == firstNotes[1]
+									&& notes[i].getPitch() >= 0) {
+								row.addToProbabilities(notes[i]);
+							}
+						}
+					}
+				}
+			}
+			row.updateProbability();
+		}
+	}
+
+	/*
+	 * Each thread has its own seeded random source and context, so every run
+	 * picks the same notes
+	 */
+	@State(Scope.Thread)
+	public static class ThreadState {
+		SplittableRandomSource random;
+		GenerationContext context;
+
+		@Setup(Level.Trial)
+		public void setUp(ModelState model) {
+			random = new SplittableRandomSource(42);
+			context = new GenerationContext(model.firstNotes[0], model.firstNotes[1], new int[] { 0 }, 60, 0,
+					random);
+		}
+	}
+
+	/*
+	 * Picks the next note from a single row
+	 */
+	@Benchmark
+	public Note rowGetNextNote(ModelState model, ThreadState thread) {
+		return model.row.getNextNote(thread.random);
+	}
+
+	/*
+	 * Fills one bar, carrying on from the notes of the previous bar
+	 */
+	@Benchmark
+	public Phrase generateNextBar(ModelState model, ThreadState thread) {
+		return model.engine.generateNextBar(thread.context);
+	}
+}
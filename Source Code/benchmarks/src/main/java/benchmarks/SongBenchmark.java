@@ -0,0 +1,69 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import data.CompiledModel;
+import data.GenerationContext;
+import data.GenerationEngine;
+import data.NoteMatrix;
+import data.ProbabilityMatrix;
+import data.SplittableRandomSource;
+import jm.music.data.Score;
+
+/**
+ * @author Benjamin Henshall
+ *
+ *         Benchmark for creating a whole score, for compositions of different
+ *         lengths. Repeated letters reuse a bar that has already been
+ *         generated, so "AABAAC" only generates three bars. Scores are
+ *         generated either from the trained NoteMatrix or from a
+ *         CompiledModel of it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SongBenchmark {
+
+	@Param({ "A", "AABAAC", "ABCDEFGHI", "ABCDEFGHIJKLMNOPQRSTUVWXYZ" })
+	public String pattern;
+
+	@Param({ "NoteMatrix", "CompiledModel" })
+	public String model;
+
+	private GenerationEngine engine;
+	private GenerationContext context;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		NoteMatrix matrix = Corpus.train(Corpus.readScores());
+		int[] firstNotes = Corpus.mostCommonChain(matrix);
+		ProbabilityMatrix generateFrom = matrix;
+		if (model.equals("CompiledModel")) {
+			generateFrom = CompiledModel.compile(matrix);
+		}
+		engine = new GenerationEngine(generateFrom);
+		context = new GenerationContext(firstNotes[0], firstNotes[1], GenerationContext.parsePattern(pattern), 60,
+				0, new SplittableRandomSource(42));
+	}
+
+	@Benchmark
+	public Score createSong() {
+		return engine.createSong(context);
+	}
+}
@@ -0,0 +1,131 @@
+package benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import data.MidiTokenReader;
+import data.NoteMatrix;
+import data.NoteTokens;
+import jm.midi.MidiParser;
+import jm.midi.SMF;
+import jm.music.data.Score;
+
+/**
+ * @author Benjamin Henshall
+ *
+ *         Benchmarks for building the matrix: reading the tokens of every file
+ *         in the corpus (with jMusic and with MidiTokenReader), counting the
+ *         chains of every file, and working out the probabilities of every row
+ *         from those counts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrainingBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class CorpusState {
+		Score[] scores;
+		NoteMatrix trained;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			scores = Corpus.readScores();
+			trained = Corpus.train(scores);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class ContentsState {
+		byte[][] contents;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			contents = Corpus.readContents();
+		}
+	}
+
+	/*
+	 * State holding a matrix whose counts are all up to date but whose
+	 * probabilities all need updating. Rebuilt before every call, as updating
+	 * the probabilities leaves nothing for the next call to do.
+	 */
+	@State(Scope.Thread)
+	public static class UnnormalisedState {
+		NoteMatrix matrix;
+
+		@Setup(Level.Invocation)
+		public void setUp(CorpusState corpus) {
+			matrix = new NoteMatrix();
+			matrix.addToMatrix(corpus.trained);
+		}
+	}
+
+	/*
+	 * Reads the tokens of every file in the corpus by building a jMusic score,
+	 * as the matrix used to. The files are loaded into memory during setup,
+	 * so only the parsing is measured.
+	 */
+	@Benchmark
+	public int readTokensWithJMusic(ContentsState state) throws IOException {
+		int notes = 0;
+		for (byte[] contents : state.contents) {
+			SMF smf = new SMF();
+			smf.read(new ByteArrayInputStream(contents));
+			Score score = new Score();
+			MidiParser.SMFToScore(score, smf);
+			notes += NoteTokens.fromScore(score).getNoteCount();
+		}
+		return notes;
+	}
+
+	/*
+	 * Reads the tokens of every file in the corpus straight from the bytes
+	 */
+	@Benchmark
+	public int readTokens(ContentsState state) throws IOException {
+		int notes = 0;
+		for (byte[] contents : state.contents) {
+			notes += MidiTokenReader.read(contents).getNoteCount();
+		}
+		return notes;
+	}
+
+	/*
+	 * Counts every chain in the corpus into a new matrix. The files are read
+	 * during setup, so only the counting is measured.
+	 */
+	@Benchmark
+	public NoteMatrix addToMatrix(CorpusState corpus) {
+		NoteMatrix matrix = new NoteMatrix();
+		for (Score score : corpus.scores) {
+			matrix.addToMatrix(score);
+		}
+		return matrix;
+	}
+
+	/*
+	 * Works out the probabilities of every row of a matrix built from the
+	 * whole corpus
+	 */
+	@Benchmark
+	public NoteMatrix updateProbabilities(UnnormalisedState state) {
+		state.matrix.updateProbabilities();
+		return state.matrix;
+	}
+}
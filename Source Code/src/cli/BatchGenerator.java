@@ -0,0 +1,344 @@
+package cli;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import data.EditJournal;
+import data.GenerationContext;
+import data.GenerationEngine;
+import data.ModelFile;
+import data.NoteMatrix;
+import data.RandomSource;
+import data.SplittableRandomSource;
+import data.ThreadLocalRandomSource;
+import data.TokenCache;
+import gui.MainFrame;
+import jm.midi.MidiParser;
+import jm.midi.SMF;
+import jm.music.data.Score;
+
+/**
+ * @author Benjamin Henshall
+ *
+ *         Class used to generate scores from the command line without starting
+ *         the GUI. The matrix is built from a folder of MIDI files or loaded
+ *         from a saved model, then the requested number of scores are
+ *         generated and written as MIDI files to an output folder using every
+ *         processor. Started by passing arguments to MainFrame, for example:
+ *
+ *         java -jar jMusic.jar --corpus "Example MIDI files" --count 100
+ *         --pattern AABAAC --tempo 90 --first 76 --second 75 --out
+ *         "Resulting Scores/Evaluation" --seed 42 --order 4
+ */
+public class BatchGenerator {
+
+	// Converting a score into MIDI data in jMusic uses a static field, so only
+	// one score can be converted at a time. Writing the converted data to a
+	// file can be done on several threads at once.
+	private static final Object CONVERT_LOCK = new Object();
+
+	// How often (in scores written) progress is printed
+	private static final int PROGRESS_INTERVAL = 100;
+
+	private static final String USAGE = "Usage: (--corpus <folder or .mid file> | --model <file."
+			+ ModelFile.EXTENSION + ">) [--out <folder>] [--count <n>] [--pattern <letters>] "
+			+ "[--tempo <bpm>] [--instrument <0-127>] [--first <pitch>] [--second <pitch>] "
+			+ "[--prefix <name>] [--seed <n>] [--threads <n>] [--cache <folder>] [--order <"
+			+ NoteMatrix.MIN_ORDER + "-" + NoteMatrix.MAX_ORDER + ">] [--edits <file." + EditJournal.EXTENSION
+			+ ">]";
+
+	// Settings read from the command line, starting at the same defaults as
+	// the GUI
+	private String corpus;
+	private String model;
+	private File outputFolder = new File("Resulting Scores");
+	private int count = 1;
+	private String pattern = MainFrame.DEFAULT_COMP;
+	private int tempo = 60;
+	private int instrument = MainFrame.DEFAULT_INST;
+	private int firstNote = 60;
+	private int secondNote = 60;
+	private String prefix = "score";
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	// Number of previous notes used to pick each note. A corpus is counted
+	// with exactly this order, while a saved model must have at least this
+	// order.
+	private int order = NoteMatrix.DEFAULT_ORDER;
+
+	// Folder the tokens of the corpus files are saved in, so later runs on
+	// the same files don't need to parse them again. Null to only keep them
+	// in memory.
+	private File cacheFolder;
+
+	// Journal of probabilities edited in the GUI, which are made to the matrix
+	// before generating. Null to generate from the matrix as it is.
+	private File editsFile;
+
+	// Seed used to make the scores reproducible, or null if the scores should
+	// be different every time
+	private Long seed;
+
+	public static void main(String[] args) {
+		BatchGenerator generator = new BatchGenerator();
+		try {
+			generator.parseArguments(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(1);
+		}
+
+		try {
+			generator.run();
+		} catch (IOException | IllegalStateException e) {
+			System.err.println("Generation failed: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/*
+	 * Method for reading the settings from the command line arguments. Throws
+	 * an IllegalArgumentException describing the problem if any argument is
+	 * invalid.
+	 */
+	private void parseArguments(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String option = args[i];
+			if (option.equals("--help")) {
+				throw new IllegalArgumentException("Generates scores without starting the GUI.");
+			}
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("Missing value for " + option);
+			}
+			String value = args[++i];
+
+			if (option.equals("--corpus")) {
+				corpus = value;
+			} else if (option.equals("--model")) {
+				model = value;
+			} else if (option.equals("--out")) {
+				outputFolder = new File(value);
+			} else if (option.equals("--count")) {
+				count = parseInt(option, value, 1, Integer.MAX_VALUE);
+			} else if (option.equals("--pattern")) {
+				pattern = value;
+			} else if (option.equals("--tempo")) {
+				tempo = parseInt(option, value, 1, 1000);
+			} else if (option.equals("--instrument")) {
+				instrument = parseInt(option, value, 0, 127);
+			} else if (option.equals("--first")) {
+				firstNote = parseInt(option, value, 0, 127);
+			} else if (option.equals("--second")) {
+				secondNote = parseInt(option, value, 0, 127);
+			} else if (option.equals("--prefix")) {
+				prefix = value;
+			} else if (option.equals("--seed")) {
+				try {
+					seed = Long.parseLong(value);
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("--seed must be a number: " + value);
+				}
+			} else if (option.equals("--threads")) {
+				threads = parseInt(option, value, 1, 1024);
+			} else if (option.equals("--cache")) {
+				cacheFolder = new File(value);
+			} else if (option.equals("--order")) {
+				order = parseInt(option, value, NoteMatrix.MIN_ORDER, NoteMatrix.MAX_ORDER);
+			} else if (option.equals("--edits")) {
+				editsFile = new File(value);
+			} else {
+				throw new IllegalArgumentException("Unknown option " + option);
+			}
+		}
+
+		if ((corpus == null) == (model == null)) {
+			throw new IllegalArgumentException("Exactly one of --corpus and --model must be given");
+		}
+
+		// The pattern must only contain letters, as in the GUI
+		if (pattern.isEmpty() || !pattern.matches("[A-Za-z]+")) {
+			throw new IllegalArgumentException("Pattern can only contain letters: " + pattern);
+		}
+	}
+
+	static int parseInt(String option, String value, int min, int max) {
+		int number;
+		try {
+			number = Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(option + " must be a number: " + value);
+		}
+		if (number < min || number > max) {
+			throw new IllegalArgumentException(option + " must be between " + min + " and " + max);
+		}
+		return number;
+	}
+
+	/*
+	 * Method for finding the MIDI files to train on. The corpus can be a
+	 * single file or a folder, in which case every MIDI file inside it is
+	 * used.
+	 */
+	static String[] findCorpusFiles(String corpus) throws IOException {
+		File corpusFile = new File(corpus);
+		if (corpusFile.isFile()) {
+			return new String[] { corpusFile.getAbsolutePath() };
+		}
+
+		File[] files = corpusFile.listFiles();
+		if (files == null) {
+			throw new IOException("Corpus not found: " + corpus);
+		}
+		ArrayList<String> midiFiles = new ArrayList<String>();
+		for (File file : files) {
+			String name = file.getName().toLowerCase();
+			if (file.isFile() && (name.endsWith(".mid") || name.endsWith(".midi"))) {
+				midiFiles.add(file.getAbsolutePath());
+			}
+		}
+		if (midiFiles.isEmpty()) {
+			throw new IOException("No MIDI files found in " + corpus);
+		}
+		return midiFiles.toArray(new String[midiFiles.size()]);
+	}
+
+	/*
+	 * Method for building the matrix from a corpus, or loading it from a saved
+	 * model if corpus is null, then making the edits saved in a journal if
+	 * editsFile isn't null. Shared with GenerationServer.
+	 */
+	static void buildMatrix(String corpus, String model, File cacheFolder, int order, File editsFile)
+			throws IOException {
+		if (model != null) {
+			MainFrame.loadMatrix(new File(model));
+			if (MainFrame.getMatrixOrder() < order) {
+				throw new IllegalStateException(
+						"--order " + order + " is higher than the model's order of " + MainFrame.getMatrixOrder());
+			}
+		} else {
+			if (cacheFolder != null) {
+				TokenCache.setDefault(new TokenCache(TokenCache.DEFAULT_CAPACITY, cacheFolder));
+			}
+			MainFrame.setModelOrder(order);
+			MainFrame.addToMatrix(findCorpusFiles(corpus));
+		}
+
+		// The edits are made once the matrix has been built, on top of
+		// whatever probabilities it already has
+		if (editsFile != null) {
+			if (!editsFile.isFile()) {
+				throw new IOException("Edit journal not found: " + editsFile);
+			}
+			MainFrame.openEditJournal(editsFile);
+		}
+	}
+
+	/*
+	 * Method for building the matrix, then generating and writing every score
+	 */
+	private void run() throws IOException {
+		buildMatrix(corpus, model, cacheFolder, order, editsFile);
+
+		// Every thread shares the same engine, and uses a new context for
+		// each score
+		final GenerationEngine engine = MainFrame.getGenerationEngine();
+		final int[] composition = GenerationContext.parsePattern(pattern);
+
+		if (!outputFolder.isDirectory() && !outputFolder.mkdirs()) {
+			throw new IOException("Could not create output folder " + outputFolder);
+		}
+
+		// Each thread takes the next score to generate as soon as it has
+		// written its last one
+		final AtomicInteger nextScore = new AtomicInteger(0);
+		final AtomicInteger written = new AtomicInteger(0);
+		int workers = Math.max(1, Math.min(threads, count));
+
+		ForkJoinPool pool = new ForkJoinPool(workers);
+		try {
+			List<Future<Void>> tasks = new ArrayList<Future<Void>>(workers);
+			for (int i = 0; i < workers; i++) {
+				tasks.add(pool.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws IOException {
+						int index;
+						while ((index = nextScore.getAndIncrement()) < count) {
+							// With a seed, every score gets its own stream of
+							// random numbers based on its number, so the same
+							// seed always gives the same files whichever thread
+							// generates them
+							RandomSource random = ThreadLocalRandomSource.INSTANCE;
+							if (seed != null) {
+								random = SplittableRandomSource.forStream(seed, index);
+							}
+							Score score = engine.createSong(new GenerationContext(firstNote, secondNote, composition,
+									tempo, instrument, random, order));
+							writeScore(score, new File(outputFolder, prefix + "_" + (index + 1) + ".mid"));
+
+							int done = written.incrementAndGet();
+							if (done % PROGRESS_INTERVAL == 0 || done == count) {
+								System.out.println("Written " + done + " of " + count + " scores");
+							}
+						}
+						return null;
+					}
+				}));
+			}
+
+			for (Future<Void> task : tasks) {
+				task.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while generating scores", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IllegalStateException("Failed to generate scores", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/*
+	 * Method for converting a score into MIDI data. Does the same as the
+	 * first half of Write.midi, but only one score is converted at a time.
+	 * Shared with GenerationServer so they use the same lock.
+	 */
+	static SMF convertScore(Score score) {
+		SMF smf = new SMF();
+		smf.clearTracks();
+		synchronized (CONVERT_LOCK) {
+			MidiParser.scoreToSMF(score, smf);
+		}
+		return smf;
+	}
+
+	/*
+	 * Method for writing a score to a MIDI file. Does the same as Write.midi,
+	 * but only holds the lock while the score is converted, closes the file
+	 * afterwards and reports any errors rather than printing them.
+	 */
+	private static void writeScore(Score score, File file) throws IOException {
+		SMF smf = convertScore(score);
+
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+		try {
+			smf.write(out);
+		} finally {
+			out.close();
+		}
+	}
+}
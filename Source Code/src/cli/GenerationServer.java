@@ -0,0 +1,412 @@
+package cli;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import data.EditJournal;
+import data.GenerationContext;
+import data.ModelFile;
+import data.NoteMatrix;
+import data.RandomSource;
+import data.SplittableRandomSource;
+import data.ThreadLocalRandomSource;
+import gui.MainFrame;
+import jm.music.data.Score;
+
+/**
+ * @author Benjamin Henshall
+ *
+ *         Class used to generate scores for other programs over HTTP. The
+ *         matrix is built or loaded once when the server starts, in the same
+ *         way as BatchGenerator, and then every request generates a new score
+ *         from it and returns it as the bytes of a MIDI file. Started by
+ *         passing --serve as the first argument to MainFrame, for example:
+ *
+ *         java -jar jMusic.jar --serve --model model.jmm --port 8080
+ *
+ *         GET /generate?pattern=AABAAC&tempo=90&instrument=0&first=76&second=75
+ *         &seed=42&order=4 returns a score, where every setting is optional.
+ *         The same seed always gives the same score. GET /metrics returns the
+ *         number of requests and how long the recent ones took to answer,
+ *         with requests that failed kept separate from the scores sent.
+ *
+ *         Each request is handled on its own virtual thread when running on
+ *         Java 21 or later. Older versions don't have virtual threads, so
+ *         requests are handled on a fixed pool of --threads threads instead.
+ *         Which of the two is used is printed when the server starts.
+ */
+public class GenerationServer {
+
+	// Argument passed to MainFrame to start the server
+	public static final String OPTION = "--serve";
+
+	// Number of recent requests the latency percentiles are worked out from
+	private static final int LATENCY_WINDOW = 10000;
+
+	// Longest pattern a request can ask for, so a single request can't take
+	// the server's time away from the others
+	private static final int MAX_PATTERN_LENGTH = 64;
+
+	private static final String USAGE = "Usage: " + OPTION + " (--corpus <folder or .mid file> | --model <file."
+			+ ModelFile.EXTENSION + ">) [--host <address>] [--port <n>] [--threads <n>] [--cache <folder>] [--order <"
+			+ NoteMatrix.MIN_ORDER + "-" + NoteMatrix.MAX_ORDER + ">] [--edits <file." + EditJournal.EXTENSION
+			+ ">]";
+
+	// Settings read from the command line. The server only listens on this
+	// computer unless another address is given.
+	private String corpus;
+	private String model;
+	private String host = "localhost";
+	private int port = 8080;
+	private File cacheFolder;
+	private File editsFile;
+	private int order = NoteMatrix.DEFAULT_ORDER;
+
+	// Number of threads requests are handled on if virtual threads aren't
+	// available
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	// Counts of requests answered, and of those that failed
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+
+	// How long the most recent scores took to generate and send, and how
+	// long the most recent failed requests took before failing
+	private final LatencyWindow latencies = new LatencyWindow();
+	private final LatencyWindow failureLatencies = new LatencyWindow();
+
+	/*
+	 * Class used to store how long recent requests took, in nanoseconds. Only
+	 * the last LATENCY_WINDOW are kept, with the oldest overwritten first.
+	 */
+	private static final class LatencyWindow {
+		private final long[] latencies = new long[LATENCY_WINDOW];
+		private long count;
+
+		synchronized void record(long nanos) {
+			latencies[(int) (count % LATENCY_WINDOW)] = nanos;
+			count++;
+		}
+
+		/*
+		 * Returns a copy of the latencies currently kept, in no particular
+		 * order
+		 */
+		synchronized long[] getRecent() {
+			return Arrays.copyOf(latencies, (int) Math.min(count, LATENCY_WINDOW));
+		}
+	}
+
+	public static void main(String[] args) {
+		GenerationServer server = new GenerationServer();
+		try {
+			server.parseArguments(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(1);
+		}
+
+		try {
+			server.start();
+		} catch (IOException | IllegalStateException e) {
+			System.err.println("Server failed to start: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/*
+	 * Method for reading the settings from the command line arguments. Throws
+	 * an IllegalArgumentException describing the problem if any argument is
+	 * invalid.
+	 */
+	private void parseArguments(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String option = args[i];
+			if (option.equals("--help")) {
+				throw new IllegalArgumentException("Generates scores for other programs over HTTP.");
+			}
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("Missing value for " + option);
+			}
+			String value = args[++i];
+
+			if (option.equals("--corpus")) {
+				corpus = value;
+			} else if (option.equals("--model")) {
+				model = value;
+			} else if (option.equals("--host")) {
+				host = value;
+			} else if (option.equals("--port")) {
+				port = BatchGenerator.parseInt(option, value, 0, 65535);
+			} else if (option.equals("--threads")) {
+				threads = BatchGenerator.parseInt(option, value, 1, 1024);
+			} else if (option.equals("--cache")) {
+				cacheFolder = new File(value);
+			} else if (option.equals("--order")) {
+				order = BatchGenerator.parseInt(option, value, NoteMatrix.MIN_ORDER, NoteMatrix.MAX_ORDER);
+			} else if (option.equals("--edits")) {
+				editsFile = new File(value);
+			} else {
+				throw new IllegalArgumentException("Unknown option " + option);
+			}
+		}
+
+		if ((corpus == null) == (model == null)) {
+			throw new IllegalArgumentException("Exactly one of --corpus and --model must be given");
+		}
+	}
+
+	/*
+	 * Method for building the matrix and then starting the server. Returns
+	 * once the server is listening, which keeps running until the program is
+	 * stopped.
+	 */
+	private void start() throws IOException {
+		BatchGenerator.buildMatrix(corpus, model, cacheFolder, order, editsFile);
+
+		final HttpServer server = HttpServer.create(new InetSocketAddress(host, port), 0);
+		final ExecutorService executor = createExecutor(threads);
+		server.setExecutor(executor);
+
+		server.createContext("/generate", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				handleGenerate(exchange);
+			}
+		});
+		server.createContext("/metrics", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				handleMetrics(exchange);
+			}
+		});
+
+		// Stops accepting requests when the program is stopped, giving the
+		// ones already started a moment to finish
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				server.stop(1);
+				executor.shutdown();
+			}
+		});
+
+		server.start();
+		System.out.println("Serving scores from a matrix of order " + MainFrame.getMatrixOrder() + " at http://"
+				+ host + ":" + server.getAddress().getPort() + "/generate");
+	}
+
+	/*
+	 * Method for creating the executor requests are handled on. Virtual
+	 * threads were added in Java 21, so they are looked up by name and the
+	 * program still runs on older versions, in which case a fixed pool of
+	 * threads is used. Prints which one was chosen, as the two behave very
+	 * differently when many requests arrive at once.
+	 */
+	private static ExecutorService createExecutor(int threads) {
+		try {
+			Method virtualThreads = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			ExecutorService executor = (ExecutorService) virtualThreads.invoke(null);
+			System.out.println("Handling each request on its own virtual thread");
+			return executor;
+		} catch (ReflectiveOperationException e) {
+			System.out.println("Virtual threads need Java 21 or later (running on Java "
+					+ System.getProperty("java.version") + "), so requests are handled on a pool of " + threads
+					+ (threads == 1 ? " thread" : " threads"));
+			return Executors.newFixedThreadPool(threads);
+		}
+	}
+
+	/*
+	 * Method for generating a score with the settings in the request's query
+	 * and sending it back as a MIDI file. Settings that aren't given use the
+	 * same defaults as the GUI, and the order defaults to the matrix's order.
+	 */
+	private void handleGenerate(HttpExchange exchange) throws IOException {
+		long start = System.nanoTime();
+		boolean sent = false;
+		try {
+			if (!exchange.getRequestMethod().equals("GET")) {
+				sendText(exchange, 405, "Only GET is supported");
+				return;
+			}
+
+			GenerationContext context;
+			try {
+				context = readContext(exchange.getRequestURI().getRawQuery());
+			} catch (IllegalArgumentException e) {
+				sendText(exchange, 400, e.getMessage());
+				return;
+			}
+
+			Score score = MainFrame.createSong(context);
+			ByteArrayOutputStream midi = new ByteArrayOutputStream();
+			BatchGenerator.convertScore(score).write(midi);
+
+			exchange.getResponseHeaders().set("Content-Type", "audio/midi");
+			sendBytes(exchange, 200, midi.toByteArray());
+			sent = true;
+		} catch (RuntimeException e) {
+			sendText(exchange, 500, "Generation failed: " + e.getMessage());
+		} finally {
+			// Every request is timed, however it ended. If sending failed,
+			// the client has usually gone away, so there is no one to tell.
+			long latency = System.nanoTime() - start;
+			if (sent) {
+				latencies.record(latency);
+			} else {
+				failures.incrementAndGet();
+				failureLatencies.record(latency);
+			}
+			requests.incrementAndGet();
+			exchange.close();
+		}
+	}
+
+	/*
+	 * Method for reading the settings of a score from a request's query.
+	 * Throws an IllegalArgumentException describing the problem if any
+	 * setting is invalid.
+	 */
+	private static GenerationContext readContext(String query) {
+		Map<String, String> settings = parseQuery(query);
+
+		String pattern = settings.containsKey("pattern") ? settings.get("pattern") : MainFrame.DEFAULT_COMP;
+		if (pattern.isEmpty() || !pattern.matches("[A-Za-z]+")) {
+			throw new IllegalArgumentException("Pattern can only contain letters: " + pattern);
+		}
+		if (pattern.length() > MAX_PATTERN_LENGTH) {
+			throw new IllegalArgumentException("Pattern can't be longer than " + MAX_PATTERN_LENGTH + " letters");
+		}
+
+		int tempo = readInt(settings, "tempo", 60, 1, 1000);
+		int instrument = readInt(settings, "instrument", MainFrame.DEFAULT_INST, 0, 127);
+		int firstNote = readInt(settings, "first", 60, 0, 127);
+		int secondNote = readInt(settings, "second", 60, 0, 127);
+		int maxOrder = MainFrame.getMatrixOrder();
+		int scoreOrder = readInt(settings, "order", maxOrder, NoteMatrix.MIN_ORDER, maxOrder);
+
+		RandomSource random = ThreadLocalRandomSource.INSTANCE;
+		if (settings.containsKey("seed")) {
+			try {
+				random = new SplittableRandomSource(Long.parseLong(settings.get("seed")));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("seed must be a number: " + settings.get("seed"));
+			}
+		}
+
+		return new GenerationContext(firstNote, secondNote, GenerationContext.parsePattern(pattern), tempo,
+				instrument, random, scoreOrder);
+	}
+
+	private static int readInt(Map<String, String> settings, String name, int defaultValue, int min, int max) {
+		if (!settings.containsKey(name)) {
+			return defaultValue;
+		}
+		return BatchGenerator.parseInt(name, settings.get(name), min, max);
+	}
+
+	/*
+	 * Method for splitting a query such as "tempo=90&seed=42" into its
+	 * settings. Returns an empty map if there is no query.
+	 */
+	private static Map<String, String> parseQuery(String query) {
+		Map<String, String> settings = new HashMap<String, String>();
+		if (query == null || query.isEmpty()) {
+			return settings;
+		}
+		try {
+			for (String setting : query.split("&")) {
+				int equals = setting.indexOf('=');
+				if (equals < 0) {
+					settings.put(URLDecoder.decode(setting, "UTF-8"), "");
+				} else {
+					settings.put(URLDecoder.decode(setting.substring(0, equals), "UTF-8"),
+							URLDecoder.decode(setting.substring(equals + 1), "UTF-8"));
+				}
+			}
+		} catch (UnsupportedEncodingException e) {
+			// Every version of Java supports UTF-8
+			throw new IllegalStateException(e);
+		}
+		return settings;
+	}
+
+	/*
+	 * Method for sending the number of requests answered and how long the
+	 * recent scores took, in milliseconds, one value per line. How long the
+	 * recent failed requests took is sent separately, prefixed with
+	 * "failure_", so quick rejections don't hide how long scores take.
+	 */
+	private void handleMetrics(HttpExchange exchange) throws IOException {
+		try {
+			StringBuilder text = new StringBuilder();
+			text.append("requests ").append(requests.get()).append('\n');
+			text.append("failures ").append(failures.get()).append('\n');
+			appendLatencies(text, "latency_", latencies);
+			appendLatencies(text, "failure_latency_", failureLatencies);
+			sendText(exchange, 200, text.toString());
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private static void appendLatencies(StringBuilder text, String prefix, LatencyWindow window) {
+		long[] recent = window.getRecent();
+		Arrays.sort(recent);
+		text.append(prefix).append("samples ").append(recent.length).append('\n');
+		text.append(prefix).append("p50_ms ").append(toMillis(percentile(recent, 0.50))).append('\n');
+		text.append(prefix).append("p90_ms ").append(toMillis(percentile(recent, 0.90))).append('\n');
+		text.append(prefix).append("p99_ms ").append(toMillis(percentile(recent, 0.99))).append('\n');
+		text.append(prefix).append("max_ms ").append(toMillis(percentile(recent, 1))).append('\n');
+	}
+
+	/*
+	 * Returns the smallest of the sorted values that the given fraction of
+	 * them are no larger than, or 0 if there are none
+	 */
+	private static long percentile(long[] sorted, double fraction) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int rank = (int) Math.ceil(fraction * sorted.length);
+		return sorted[Math.max(rank, 1) - 1];
+	}
+
+	private static String toMillis(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+
+	private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+		sendBytes(exchange, status, text.getBytes("UTF-8"));
+	}
+
+	private static void sendBytes(HttpExchange exchange, int status, byte[] body) throws IOException {
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			out.write(body);
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package data;
+
+/**
+ * @author Benjamin Henshall
+ *
+ *         Class used to pick a random entry from a list of probabilities in
+ *         constant time, using Vose's version of Walker's alias method. The
+ *         table is built once whenever the probabilities change, after which
+ *         every draw only needs to look at a single entry, no matter how many
+ *         probabilities there are.
+ *
+ *         A single table can hold several separate lists (segments) side by
+ *         side in the same arrays, which lets a row keep the rhythm
+ *         probabilities of every pitch in one table. Each column's alias is
+ *         stored relative to the start of its segment, so the columns of a
+ *         segment can be copied to another position unchanged, which
+ *         CompiledModel does when it copies rows from an older model.
+ */
+public class AliasTable {
+
+	// Stores the chance of keeping entry i when column i is picked. If the
+	// entry isn't kept, then alias[i] is used instead.
+	private double[] probability;
+
+	// Stores the entry each column falls back to, relative to the start of
+	// its segment
+	private int[] alias;
+
+	// Segment s is stored in the columns from offsets[s] up to (but not
+	// including) offsets[s + 1]
+	private int[] offsets;
+
+	// Number of entries that can be picked from each segment. A segment whose
+	// weights are all 0 has a size of 0.
+	private int[] sizes;
+
+	/*
+	 * Builds a table with a single segment from the first "count" weights in
+	 * the array. Weights do not need to add up to 1, as they are scaled by
+	 * their total.
+	 */
+	public AliasTable(double[] weights, int count) {
+		this(weights, new int[] { 0, count }, 1);
+	}
+
+	/*
+	 * Builds a table with one segment for each of the given ranges of the
+	 * weights array. Segment s uses the weights from offsets[s] up to (but not
+	 * including) offsets[s + 1].
+	 */
+	public AliasTable(double[] weights, int[] offsets, int segments) {
+		this.offsets = offsets;
+		int count = offsets[segments];
+		probability = new double[count];
+		alias = new int[count];
+		sizes = new int[segments];
+
+		// Work arrays shared between segments, so they are sized to fit the
+		// largest segment
+		int largest = 0;
+		for (int s = 0; s < segments; s++) {
+			largest = Math.max(largest, offsets[s + 1] - offsets[s]);
+		}
+		double[] scaled = new double[largest];
+		int[] small = new int[largest];
+		int[] large = new int[largest];
+
+		for (int s = 0; s < segments; s++) {
+			sizes[s] = build(weights, offsets[s], offsets[s + 1] - offsets[s], probability, alias, offsets[s], scaled,
+					small, large);
+		}
+	}
+
+	/*
+	 * Builds the columns for the "count" weights starting at "from" into the
+	 * given arrays, in the same positions, for a class that stores its
+	 * columns in its own arrays rather than in a table (see SparseModel).
+	 * Columns are picked from in the same way as sample. Returns the number
+	 * of entries that can be picked, which is 0 if all of the weights are 0.
+	 */
+	static int build(double[] weights, int from, int count, double[] probability, int[] alias) {
+		return build(weights, from, count, probability, alias, from, new double[count], new int[count],
+				new int[count]);
+	}
+
+	/*
+	 * Builds the columns for the "count" weights starting at "from", putting
+	 * them in the columns starting at "at". Returns the number of entries that
+	 * can be picked, which is 0 if all of the weights are 0.
+	 */
+	private static int build(double[] weights, int from, int count, double[] probability, int[] alias, int at,
+			double[] scaled, int[] small, int[] large) {
+		// Works out the total weight so the weights can be scaled
+		double total = 0;
+		for (int i = 0; i < count; i++) {
+			total += weights[from + i];
+		}
+
+		// If there's nothing to pick from, leave the segment empty
+		if (total <= 0) {
+			return 0;
+		}
+
+		// Scales every weight so that the average column has a weight of
+		// exactly 1, then splits the columns into those below and above the
+		// average. The two arrays are used as stacks.
+		int smallSize = 0;
+		int largeSize = 0;
+		for (int i = 0; i < count; i++) {
+			scaled[i] = weights[from + i] * count / total;
+			if (scaled[i] < 1) {
+				small[smallSize++] = i;
+			} else {
+				large[largeSize++] = i;
+			}
+		}
+
+		// Fills up each small column with the remainder of a large column,
+		// which then goes back on whichever stack it now belongs to
+		while (smallSize > 0 && largeSize > 0) {
+			int less = small[--smallSize];
+			int more = large[--largeSize];
+
+			probability[at + less] = scaled[less];
+			alias[at + less] = more;
+
+			scaled[more] = (scaled[more] + scaled[less]) - 1;
+			if (scaled[more] < 1) {
+				small[smallSize++] = more;
+			} else {
+				large[largeSize++] = more;
+			}
+		}
+
+		// Whatever is left over is (apart from rounding errors) exactly full
+		while (largeSize > 0) {
+			probability[at + large[--largeSize]] = 1;
+		}
+		while (smallSize > 0) {
+			probability[at + small[--smallSize]] = 1;
+		}
+
+		return count;
+	}
+
+	/*
+	 * Returns true if there are no entries that can be picked
+	 */
+	public boolean isEmpty() {
+		return isEmpty(0);
+	}
+
+	/*
+	 * Returns true if there are no entries that can be picked in the given
+	 * segment
+	 */
+	public boolean isEmpty(int segment) {
+		return sizes[segment] == 0;
+	}
+
+	/*
+	 * Picks an entry using a random number between 0 and 1. Returns -1 if the
+	 * table is empty.
+	 */
+	public int sample(double randomNumber) {
+		return sample(0, randomNumber);
+	}
+
+	/*
+	 * Picks an entry from the given segment using a random number between 0
+	 * and 1. The whole part of randomNumber * size chooses the column, and the
+	 * fractional part decides between the column and its alias. The entry
+	 * returned is the position in the weights array the table was built from,
+	 * or -1 if the segment is empty.
+	 */
+	public int sample(int segment, double randomNumber) {
+		int size = sizes[segment];
+		if (size == 0) {
+			return -1;
+		}
+
+		double scaled = randomNumber * size;
+		int column = (int) scaled;
+
+		// Protects against a random number of exactly 1
+		if (column >= size) {
+			column = size - 1;
+		}
+
+		double keep = scaled - column;
+		column += offsets[segment];
+		if (keep < probability[column]) {
+			return column;
+		}
+		return offsets[segment] + alias[column];
+	}
+}
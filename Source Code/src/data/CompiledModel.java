@@ -0,0 +1,391 @@
+package data;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author Benjamin Henshall
+ *
+ *         Class used to store a read-only copy of a NoteMatrix that is quick to
+ *         generate from. Rather than a map of row objects, the rows are stored
+ *         in compressed sparse row form: a handful of flat arrays, with the
+ *         successors of every row stored one after another and the rhythm
+ *         values and dynamics of every successor stored one after another.
+ *         Picking a note only reads these arrays and never changes anything,
+ *         so any number of threads can generate from the same compiled model
+ *         without locking.
+ *
+ *         A compiled model never changes once created. Once the matrix has
+ *         been edited or had files added, it is compiled again to make a new
+ *         one, copying the rows that haven't changed from the old one. The
+ *         arrays are exactly the sections saved by ModelFile (see SparseModel
+ *         for what each one holds), so a compiled model generates exactly the
+ *         same notes as the same matrix saved and opened again.
+ */
+public class CompiledModel extends SparseModel {
+
+	// Sections indexed by successor, by rhythm value and by dynamic, which
+	// are copied in one go for rows that haven't changed
+	private static final int[] SUCCESSOR_INTS = { SUCCESSOR_PITCH, SUCCESSOR_COUNT, SUCCESSOR_ALIAS };
+	private static final int[] SUCCESSOR_DOUBLES = { SUCCESSOR_PROBABILITY, SUCCESSOR_CUMULATIVE, SUCCESSOR_KEEP };
+	private static final int[] RHYTHM_INTS = { RHYTHM_COUNT, RHYTHM_CUMULATIVE, RHYTHM_ALIAS };
+	private static final int[] RHYTHM_DOUBLES = { RHYTHM_VALUE, RHYTHM_KEEP };
+	private static final int[] DYNAMIC_INTS = { DYNAMIC_VALUE, DYNAMIC_COUNT, DYNAMIC_ALIAS };
+	private static final int[] DYNAMIC_DOUBLES = { DYNAMIC_KEEP };
+
+	// Every section holding ints and doubles, indexed by the section numbers
+	// in SparseModel
+	private final int[][] ints;
+	private final double[][] doubles;
+
+	// Context of every row in ascending order
+	private final long[] rowKeys;
+
+	/*
+	 * Compiles the rows of a matrix. Rows whose keys are in "changed" (in
+	 * ascending order) are read from the matrix, and left out if the matrix
+	 * no longer has them. Every other row is copied straight from the arrays
+	 * of "previous", which can be null if every row has changed.
+	 */
+	private CompiledModel(NoteMatrix matrix, CompiledModel previous, long[] changed) {
+		super(matrix.getOrder(), matrix.getNumOfPitches());
+		int[] pitchOccurrences = matrix.getPitchOccurrences().clone();
+
+		Map<Long, MatrixRow> rows = matrix.getRows();
+		int previousRows = previous == null ? 0 : previous.rowKeys.length;
+		int[] previousRowStart = previous == null ? null : previous.ints[ROW_START];
+		int[] previousRhythmStart = previous == null ? null : previous.ints[RHYTHM_START];
+		int[] previousDynamicStart = previous == null ? null : previous.ints[DYNAMIC_START];
+
+		// First merges the rows of the previous model with the changed rows,
+		// keeping them in order of their context so they can be found with a
+		// binary search, and works out how large each array needs to be. Each
+		// row is either copied from a row of the previous model or read from
+		// the matrix.
+		long[] keys = new long[previousRows + changed.length];
+		int[] copiedFrom = new int[keys.length];
+		MatrixRow[] changedRows = new MatrixRow[keys.length];
+		long[][] valueKeys = new long[keys.length][];
+		int rowCount = 0;
+		int successors = 0;
+		int rhythms = 0;
+		int dynamics = 0;
+		int p = 0;
+		int c = 0;
+		while (p < previousRows || c < changed.length) {
+			if (c == changed.length || (p < previousRows && previous.rowKeys[p] < changed[c])) {
+				int from = previousRowStart[p];
+				int to = previousRowStart[p + 1];
+				keys[rowCount] = previous.rowKeys[p];
+				copiedFrom[rowCount] = p;
+				successors += to - from;
+				rhythms += previousRhythmStart[to] - previousRhythmStart[from];
+				dynamics += previousDynamicStart[to] - previousDynamicStart[from];
+				rowCount++;
+				p++;
+				continue;
+			}
+
+			long key = changed[c++];
+			if (p < previousRows && previous.rowKeys[p] == key) {
+				p++;
+			}
+			MatrixRow row = rows.get(key);
+			if (row == null) {
+				// Every note of the context has been removed
+				continue;
+			}
+			keys[rowCount] = key;
+			copiedFrom[rowCount] = -1;
+			changedRows[rowCount] = row;
+			valueKeys[rowCount] = row.getSortedValueKeys();
+			successors += row.getSize();
+			for (long value : valueKeys[rowCount]) {
+				if (MatrixRow.isDynamicKey(value)) {
+					dynamics++;
+				} else {
+					rhythms++;
+				}
+			}
+			rowCount++;
+		}
+
+		int[][] ints = new int[INT_SECTIONS][];
+		long[] intLengths = getIntSectionLengths(pitchOccurrences.length, rowCount, successors, rhythms, dynamics);
+		for (int section = 0; section < INT_SECTIONS; section++) {
+			ints[section] = new int[(int) intLengths[section]];
+		}
+		ints[PITCH_OCCURRENCES] = pitchOccurrences;
+		double[][] doubles = new double[DOUBLE_SECTIONS][];
+		long[] doubleLengths = getDoubleSectionLengths(successors, rhythms, dynamics);
+		for (int section = 0; section < DOUBLE_SECTIONS; section++) {
+			doubles[section] = new double[(int) doubleLengths[section]];
+		}
+
+		int[] rowTotals = ints[ROW_TOTALS];
+		int[] rowStart = ints[ROW_START];
+		int[] successorPitch = ints[SUCCESSOR_PITCH];
+		int[] successorCount = ints[SUCCESSOR_COUNT];
+		double[] successorProbability = doubles[SUCCESSOR_PROBABILITY];
+		double[] successorCumulative = doubles[SUCCESSOR_CUMULATIVE];
+		int[] rhythmStart = ints[RHYTHM_START];
+		int[] dynamicStart = ints[DYNAMIC_START];
+		double[] rhythmValue = doubles[RHYTHM_VALUE];
+		int[] rhythmCount = ints[RHYTHM_COUNT];
+		int[] rhythmCumulative = ints[RHYTHM_CUMULATIVE];
+		int[] dynamicValue = ints[DYNAMIC_VALUE];
+		int[] dynamicCount = ints[DYNAMIC_COUNT];
+
+		// The counts of the rhythm values and dynamics as doubles, which the
+		// alias tables are built from
+		double[] rhythmWeights = new double[rhythms];
+		double[] dynamicWeights = new double[dynamics];
+
+		// Then fills the arrays row by row
+		int s = 0;
+		int rh = 0;
+		int d = 0;
+		for (int r = 0; r < rowCount; r++) {
+			rowStart[r] = s;
+
+			if (copiedFrom[r] >= 0) {
+				// The row hasn't changed, so its successors, rhythm values and
+				// dynamics are copied in one go, moving their start positions
+				// along to where they now are. Aliases are stored relative to
+				// the start of their range, so they are copied unchanged.
+				int row = copiedFrom[r];
+				int from = previousRowStart[row];
+				int count = previousRowStart[row + 1] - from;
+				int rhythmFrom = previousRhythmStart[from];
+				int rhythmLength = previousRhythmStart[from + count] - rhythmFrom;
+				int dynamicFrom = previousDynamicStart[from];
+				int dynamicLength = previousDynamicStart[from + count] - dynamicFrom;
+
+				rowTotals[r] = previous.ints[ROW_TOTALS][row];
+				copySections(previous.ints, ints, SUCCESSOR_INTS, from, s, count);
+				copySections(previous.doubles, doubles, SUCCESSOR_DOUBLES, from, s, count);
+				for (int i = 0; i < count; i++) {
+					rhythmStart[s + i] = previousRhythmStart[from + i] - rhythmFrom + rh;
+					dynamicStart[s + i] = previousDynamicStart[from + i] - dynamicFrom + d;
+				}
+				copySections(previous.ints, ints, RHYTHM_INTS, rhythmFrom, rh, rhythmLength);
+				copySections(previous.doubles, doubles, RHYTHM_DOUBLES, rhythmFrom, rh, rhythmLength);
+				copySections(previous.ints, ints, DYNAMIC_INTS, dynamicFrom, d, dynamicLength);
+				copySections(previous.doubles, doubles, DYNAMIC_DOUBLES, dynamicFrom, d, dynamicLength);
+				s += count;
+				rh += rhythmLength;
+				d += dynamicLength;
+				continue;
+			}
+
+			MatrixRow row = changedRows[r];
+			long[] values = valueKeys[r];
+			rowTotals[r] = row.getTotalCount();
+
+			// The sorted value keys hold every rhythm value grouped by pitch,
+			// followed by every dynamic grouped by pitch, so two positions are
+			// kept and moved along as we go through the successors
+			int nextRhythm = 0;
+			int nextDynamic = 0;
+			while (nextDynamic < values.length && !MatrixRow.isDynamicKey(values[nextDynamic])) {
+				nextDynamic++;
+			}
+			int rhythmEnd = nextDynamic;
+
+			double cumulativeProbability = 0;
+			for (int i = 0; i < row.getSize(); i++, s++) {
+				int pitch = row.getPitchAt(i);
+				successorPitch[s] = pitch;
+				successorCount[s] = row.getCountAt(i);
+				successorProbability[s] = row.getProbabilityAt(i);
+				cumulativeProbability += row.getProbabilityAt(i);
+				successorCumulative[s] = cumulativeProbability;
+
+				rhythmStart[s] = rh;
+				int cumulative = 0;
+				while (nextRhythm < rhythmEnd && MatrixRow.getKeyPitch(values[nextRhythm]) <= pitch) {
+					if (MatrixRow.getKeyPitch(values[nextRhythm]) == pitch) {
+						rhythmCount[rh] = row.getValueCount(values[nextRhythm]);
+						rhythmValue[rh] = row.getValue(values[nextRhythm]);
+						rhythmWeights[rh] = rhythmCount[rh];
+						cumulative += rhythmCount[rh];
+						rhythmCumulative[rh] = cumulative;
+						rh++;
+					}
+					nextRhythm++;
+				}
+				AliasTable.build(rhythmWeights, rhythmStart[s], rh - rhythmStart[s], doubles[RHYTHM_KEEP],
+						ints[RHYTHM_ALIAS]);
+
+				dynamicStart[s] = d;
+				while (nextDynamic < values.length && MatrixRow.getKeyPitch(values[nextDynamic]) <= pitch) {
+					if (MatrixRow.getKeyPitch(values[nextDynamic]) == pitch) {
+						dynamicCount[d] = row.getValueCount(values[nextDynamic]);
+						dynamicValue[d] = (int) row.getValue(values[nextDynamic]);
+						dynamicWeights[d] = dynamicCount[d];
+						d++;
+					}
+					nextDynamic++;
+				}
+				AliasTable.build(dynamicWeights, dynamicStart[s], d - dynamicStart[s], doubles[DYNAMIC_KEEP],
+						ints[DYNAMIC_ALIAS]);
+			}
+			AliasTable.build(successorProbability, rowStart[r], s - rowStart[r], doubles[SUCCESSOR_KEEP],
+					ints[SUCCESSOR_ALIAS]);
+		}
+		rowStart[rowCount] = s;
+		rhythmStart[successors] = rh;
+		dynamicStart[successors] = d;
+
+		// Keys and values that didn't belong to any successor are left out,
+		// so the arrays are trimmed to what was actually used
+		trimSections(ints, RHYTHM_INTS, rh);
+		trimSections(doubles, RHYTHM_DOUBLES, rh);
+		trimSections(ints, DYNAMIC_INTS, d);
+		trimSections(doubles, DYNAMIC_DOUBLES, d);
+
+		this.ints = ints;
+		this.doubles = doubles;
+		this.rowKeys = Arrays.copyOf(keys, rowCount);
+	}
+
+	/*
+	 * Copies "length" entries of each of the given sections from one model's
+	 * arrays to another's
+	 */
+	private static void copySections(Object[] from, Object[] to, int[] sections, int fromIndex, int toIndex,
+			int length) {
+		for (int section : sections) {
+			System.arraycopy(from[section], fromIndex, to[section], toIndex, length);
+		}
+	}
+
+	/*
+	 * Shortens each of the given sections to the given length
+	 */
+	private static void trimSections(int[][] arrays, int[] sections, int length) {
+		for (int section : sections) {
+			arrays[section] = Arrays.copyOf(arrays[section], length);
+		}
+	}
+
+	private static void trimSections(double[][] arrays, int[] sections, int length) {
+		for (int section : sections) {
+			arrays[section] = Arrays.copyOf(arrays[section], length);
+		}
+	}
+
+	/*
+	 * Method for compiling a matrix. The probabilities of the matrix are
+	 * updated first so the compiled model is ready to generate from. The
+	 * matrix can be changed afterwards without changing the compiled model.
+	 */
+	public static CompiledModel compile(NoteMatrix matrix) {
+		matrix.updateProbabilities();
+		return new CompiledModel(matrix, null, sortedKeys(matrix.getRows().keySet()));
+	}
+
+	/*
+	 * Method for compiling a matrix that differs from the one "previous" was
+	 * compiled from only in the rows with the given keys, e.g. a copy made by
+	 * copyOnWrite and then edited. Only those rows are read, while the rest
+	 * are copied from the previous model's arrays, so this is much quicker
+	 * than compiling the whole matrix again after a small edit.
+	 */
+	static CompiledModel recompile(CompiledModel previous, NoteMatrix matrix, Set<Long> changed) {
+		matrix.updateProbabilities();
+		return new CompiledModel(matrix, previous, sortedKeys(changed));
+	}
+
+	private static long[] sortedKeys(Set<Long> keySet) {
+		long[] keys = new long[keySet.size()];
+		int i = 0;
+		for (Long key : keySet) {
+			keys[i++] = key;
+		}
+		Arrays.sort(keys);
+		return keys;
+	}
+
+	/*
+	 * Getters for entry i of a section, and the key and number of rows. Used
+	 * by SparseModel to generate from the arrays.
+	 */
+	@Override
+	int getInt(int section, int index) {
+		return ints[section][index];
+	}
+
+	@Override
+	double getDouble(int section, int index) {
+		return doubles[section][index];
+	}
+
+	@Override
+	long getRowKey(int row) {
+		return rowKeys[row];
+	}
+
+	/*
+	 * Getters for the sizes of the arrays. Used when saving the model.
+	 */
+	@Override
+	int getRowCount() {
+		return rowKeys.length;
+	}
+
+	int getSuccessorCount() {
+		return ints[SUCCESSOR_PITCH].length;
+	}
+
+	int getRhythmCount() {
+		return ints[RHYTHM_COUNT].length;
+	}
+
+	int getDynamicCount() {
+		return ints[DYNAMIC_VALUE].length;
+	}
+
+	@Override
+	int getOccurrencesLength() {
+		return ints[PITCH_OCCURRENCES].length;
+	}
+
+	/*
+	 * Method for writing every array, in the order they are laid out in a
+	 * model file (see ModelFile)
+	 */
+	void writeSections(DataOutputStream out) throws IOException {
+		for (int[] section : ints) {
+			writeInts(out, section);
+		}
+
+		// Pads the file so the longs and doubles start on a multiple of 8
+		// bytes
+		while (out.size() % 8 != 0) {
+			out.writeByte(0);
+		}
+
+		for (long key : rowKeys) {
+			out.writeLong(key);
+		}
+		for (double[] section : doubles) {
+			writeDoubles(out, section);
+		}
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		for (int value : values) {
+			out.writeInt(value);
+		}
+	}
+
+	private static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+		for (double value : values) {
+			out.writeDouble(value);
+		}
+	}
+}
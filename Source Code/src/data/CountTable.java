@@ -0,0 +1,219 @@
+package data;
+
+import java.util.Arrays;
+
+/**
+ * @author Benjamin Henshall
+ *
+ *         Class used to count how many times each key has occurred, using
+ *         plain arrays instead of a list of objects. Entries are stored in
+ *         parallel arrays and are found through an open addressing hash
+ *         table, so adding to an existing entry never has to scan the other
+ *         entries.
+ *
+ *         An entry is deleted as soon as its count drops to 0, with the last
+ *         entry moved into its place, and the arrays shrink once most of them
+ *         are unused. Adding and removing the same files over and over
+ *         therefore never leaves the table growing or full of dead entries.
+ */
+public class CountTable {
+
+	// Initial number of entries the arrays can hold before growing
+	private static final int INITIAL_CAPACITY = 2;
+
+	// Parallel arrays storing the key, the number of occurrences and the value
+	// represented by each entry. Entry i is made up of keys[i], counts[i] and
+	// values[i].
+	private long[] keys;
+	private int[] counts;
+	private double[] values;
+
+	// Number of entries currently stored
+	private int size;
+
+	// Hash table used to find entries. Each slot holds the index of an entry
+	// plus one, so that 0 can mean the slot is empty. Always at least twice as
+	// large as the number of entries, and always a power of two.
+	private int[] slots;
+
+	public CountTable() {
+		keys = new long[INITIAL_CAPACITY];
+		counts = new int[INITIAL_CAPACITY];
+		values = new double[INITIAL_CAPACITY];
+		slots = new int[INITIAL_CAPACITY * 2];
+		size = 0;
+	}
+
+	/*
+	 * Creates a copy of another table, which can be changed without changing
+	 * the original
+	 */
+	public CountTable(CountTable other) {
+		keys = other.keys.clone();
+		counts = other.counts.clone();
+		values = other.values.clone();
+		slots = other.slots.clone();
+		size = other.size;
+	}
+
+	/*
+	 * Method for working out which slot a key should start looking in
+	 */
+	private int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & (slots.length - 1);
+	}
+
+	/*
+	 * Returns the index of the entry with the given key, or -1 if the key
+	 * has no occurrences
+	 */
+	public int indexOf(long key) {
+		int slot = findSlot(key);
+		return slots[slot] - 1;
+	}
+
+	/*
+	 * Returns the slot holding the entry with the given key, or the empty slot
+	 * it would be put in if there isn't one
+	 */
+	private int findSlot(long key) {
+		int slot = hash(key);
+		while (slots[slot] != 0 && keys[slots[slot] - 1] != key) {
+			slot = (slot + 1) & (slots.length - 1);
+		}
+		return slot;
+	}
+
+	/*
+	 * Method for adding "amount" occurrences of a key, or removing them if
+	 * amount is negative. If the key is new, then a new entry is created which
+	 * represents the given value. If several values share a key, the entry
+	 * represents the smallest of them, so the result doesn't depend on the
+	 * order values were added in. Once an entry has no occurrences left it is
+	 * deleted.
+	 */
+	public void add(long key, double value, int amount) {
+		int slot = findSlot(key);
+		if (slots[slot] != 0) {
+			int index = slots[slot] - 1;
+			counts[index] += amount;
+			if (value < values[index]) {
+				values[index] = value;
+			}
+			if (counts[index] == 0) {
+				delete(slot);
+			}
+			return;
+		}
+
+		// Nothing to store for a key with no occurrences
+		if (amount == 0) {
+			return;
+		}
+
+		// Grows the arrays if they are full, after which the key belongs in a
+		// different slot
+		if (size == keys.length) {
+			resize(size * 2);
+			slot = findSlot(key);
+		}
+
+		int index = size++;
+		keys[index] = key;
+		counts[index] = amount;
+		values[index] = value;
+		slots[slot] = index + 1;
+	}
+
+	/*
+	 * Method for deleting the entry in the given slot. The entries after it
+	 * in the hash table are shifted back over the gap where they can be, so
+	 * that no markers for deleted slots are needed. The last entry is then
+	 * moved into the deleted entry's place in the arrays, and the arrays
+	 * shrink if less than a quarter of them are used.
+	 */
+	private void delete(int slot) {
+		int index = slots[slot] - 1;
+		int mask = slots.length - 1;
+
+		// An entry can be moved back into the gap if the slot it starts
+		// looking in isn't between the gap and where it currently is
+		int gap = slot;
+		int next = (gap + 1) & mask;
+		while (slots[next] != 0) {
+			int home = hash(keys[slots[next] - 1]);
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				slots[gap] = slots[next];
+				gap = next;
+			}
+			next = (next + 1) & mask;
+		}
+		slots[gap] = 0;
+
+		int last = --size;
+		if (index != last) {
+			keys[index] = keys[last];
+			counts[index] = counts[last];
+			values[index] = values[last];
+			slots[findSlot(keys[index])] = index + 1;
+		}
+
+		if (size < keys.length / 4 && keys.length > INITIAL_CAPACITY) {
+			resize(Math.max(INITIAL_CAPACITY, keys.length / 2));
+		}
+	}
+
+	/*
+	 * Method for changing the number of entries the arrays can hold, and
+	 * rebuilding the hash table to match
+	 */
+	private void resize(int capacity) {
+		keys = Arrays.copyOf(keys, capacity);
+		counts = Arrays.copyOf(counts, capacity);
+		values = Arrays.copyOf(values, capacity);
+		rehash(capacity * 2);
+	}
+
+	/*
+	 * Method for rebuilding the hash table with a new number of slots
+	 */
+	private void rehash(int newLength) {
+		slots = new int[newLength];
+		for (int i = 0; i < size; i++) {
+			int slot = hash(keys[i]);
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & (newLength - 1);
+			}
+			slots[slot] = i + 1;
+		}
+	}
+
+	/*
+	 * Returns the number of entries stored
+	 */
+	public int size() {
+		return size;
+	}
+
+	/*
+	 * Getter for the key of entry i
+	 */
+	public long getKey(int index) {
+		return keys[index];
+	}
+
+	/*
+	 * Getter for the number of occurrences of entry i
+	 */
+	public int getCount(int index) {
+		return counts[index];
+	}
+
+	/*
+	 * Getter for the value represented by entry i
+	 */
+	public double getValue(int index) {
+		return values[index];
+	}
+}
@@ -0,0 +1,190 @@
+package data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * @author Benjamin Henshall
+ *
+ *         Class used to save the probabilities the user has edited by hand, so
+ *         they are still there the next time the program runs. Every edit,
+ *         undo and redo is added to the end of the journal file as it happens,
+ *         and nothing already written is ever changed. When the journal is
+ *         opened, its records are replayed in order on top of the edits it
+ *         was started from to rebuild the EditOverlay, which takes very little
+ *         time as only the edits are stored rather than the matrix.
+ *
+ *         A journal only makes sense for the matrix it was started from, so
+ *         each saved model has its own journal next to it (see MainFrame),
+ *         holding the edits made since the model was last saved.
+ *
+ *         If the program stops while a record is being written, the unfinished
+ *         record is ignored and cut off the end of the file when it is next
+ *         opened. Numbers are big-endian, and the file starts with a header
+ *         followed by the records, each starting with its type.
+ */
+public class EditJournal implements Closeable {
+
+	// Extension and header of journal files
+	public static final String EXTENSION = "jmj";
+	private static final int MAGIC = 0x4A4D454A;
+	private static final int VERSION = 2;
+	private static final int HEADER_BYTES = 8;
+
+	// Types of record. An edit is followed by the three pitches and the new
+	// probability, while the others have nothing after them.
+	private static final byte EDIT = 1;
+	private static final byte UNDO = 2;
+	private static final byte REDO = 3;
+
+	private final File file;
+	private final DataOutputStream out;
+
+	// Edits the journal was started from, with the edits found in the file
+	// when it was opened made on top
+	private final EditOverlay overlay;
+
+	private EditJournal(File file, EditOverlay overlay) throws IOException {
+		this.file = file;
+		this.overlay = overlay;
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+	}
+
+	/*
+	 * Creates an empty journal in the given file, replacing anything already
+	 * in it. Edits written to it are made on top of the given edits.
+	 */
+	public static EditJournal create(File file, EditOverlay base) throws IOException {
+		DataOutputStream header = new DataOutputStream(new FileOutputStream(file));
+		try {
+			header.writeInt(MAGIC);
+			header.writeInt(VERSION);
+		} finally {
+			header.close();
+		}
+		return new EditJournal(file, base);
+	}
+
+	/*
+	 * Opens the journal in the given file, replaying its records on top of
+	 * the given edits, or creates an empty one if the file doesn't exist or
+	 * is too short to hold a header, as happens when the program stops while
+	 * creating it. Throws an IOException if the file isn't a journal.
+	 */
+	public static EditJournal open(File file, EditOverlay base) throws IOException {
+		if (!file.exists() || file.length() < HEADER_BYTES) {
+			return create(file, base);
+		}
+
+		EditOverlay overlay = base;
+		long complete = HEADER_BYTES;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			// Read before the records, so a bad header is never mistaken for
+			// an unfinished record and written after
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not an edit journal: " + file);
+			}
+
+			// Reads records until the end of the file, remembering where the
+			// last complete record ended
+			try {
+				while (true) {
+					int type = in.read();
+					if (type == -1) {
+						break;
+					}
+					if (type == EDIT) {
+						int pitch1 = in.readInt();
+						int pitch2 = in.readInt();
+						int pitch3 = in.readInt();
+						double probability = in.readDouble();
+						overlay = overlay.edit(pitch1, pitch2, pitch3, probability);
+						complete += 21;
+					} else if (type == UNDO) {
+						overlay = overlay.undo();
+						complete++;
+					} else if (type == REDO) {
+						overlay = overlay.redo();
+						complete++;
+					} else {
+						throw new IOException("Damaged edit journal: " + file);
+					}
+				}
+			} catch (EOFException e) {
+				// The last record wasn't finished, so it is left out
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Damaged edit journal: " + file);
+			}
+		} finally {
+			in.close();
+		}
+
+		// Cuts off an unfinished record so new records follow on from the
+		// last complete one
+		if (complete < file.length()) {
+			RandomAccessFile truncate = new RandomAccessFile(file, "rw");
+			try {
+				truncate.setLength(complete);
+			} finally {
+				truncate.close();
+			}
+		}
+		return new EditJournal(file, overlay);
+	}
+
+	/*
+	 * Returns the edits the journal was started from, with the edits found in
+	 * the file when it was opened made on top
+	 */
+	public EditOverlay getOverlay() {
+		return overlay;
+	}
+
+	/*
+	 * Returns the file the journal is saved in
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/*
+	 * Methods for adding a record to the end of the journal. Each record is
+	 * written to the file straight away.
+	 */
+	public synchronized void writeEdit(int pitch1, int pitch2, int pitch3, double probability) throws IOException {
+		out.writeByte(EDIT);
+		out.writeInt(pitch1);
+		out.writeInt(pitch2);
+		out.writeInt(pitch3);
+		out.writeDouble(probability);
+		out.flush();
+	}
+
+	public synchronized void writeUndo() throws IOException {
+		writeRecord(UNDO);
+	}
+
+	public synchronized void writeRedo() throws IOException {
+		writeRecord(REDO);
+	}
+
+	private void writeRecord(byte type) throws IOException {
+		out.writeByte(type);
+		out.flush();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		out.close();
+	}
+}
@@ -0,0 +1,258 @@
+package data;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author Benjamin Henshall
+ *
+ *         Class used to store the probabilities the user has edited by hand,
+ *         separately from the counts of the matrix. Each edit is the new
+ *         probability of pitch3 following the chain pitch1, pitch2. The edits
+ *         are made to a copy of the matrix whenever a new model is compiled
+ *         (see ModelStore). The counts themselves are never changed, so the
+ *         edits are made again on top of the new counts after files are
+ *         imported or removed, rather than being lost.
+ *
+ *         Setting one probability rescales the rest of its row, so every edit
+ *         is made again in the order the user made it. Keeping only the last
+ *         edit of each cell would give a different row, e.g. setting A to
+ *         0.5, B to 0.3 then A to 0.2 doesn't give the same row as setting B
+ *         to 0.3 then A to 0.2.
+ *
+ *         The edits made and the edits undone are kept in two linked lists,
+ *         most recent first. Nodes never change once created, so every
+ *         overlay shares them with the overlay it was made from: editing,
+ *         undoing or redoing returns a new overlay in constant time, however
+ *         many edits have been made, without copying anything.
+ */
+public class EditOverlay {
+
+	// Overlay with no edits
+	public static final EditOverlay EMPTY = new EditOverlay(null, null);
+
+	/*
+	 * Class used to store a single edit
+	 */
+	private static final class Entry {
+		final int pitch1;
+		final int pitch2;
+		final int pitch3;
+		final double probability;
+
+		Entry(int pitch1, int pitch2, int pitch3, double probability) {
+			this.pitch1 = pitch1;
+			this.pitch2 = pitch2;
+			this.pitch3 = pitch3;
+			this.probability = probability;
+		}
+	}
+
+	/*
+	 * Class used to store one edit of a list, along with the rest of the list
+	 * after it and the length of the list from this node onwards
+	 */
+	private static final class Node {
+		final Entry entry;
+		final Node next;
+		final int length;
+
+		Node(Entry entry, Node next) {
+			this.entry = entry;
+			this.next = next;
+			this.length = next == null ? 1 : next.length + 1;
+		}
+	}
+
+	// Edits that have been made, most recent first, and edits that have been
+	// undone and can be redone, most recently undone first. Null if a list is
+	// empty.
+	private final Node applied;
+	private final Node undone;
+
+	// Keys of the chains (see NoteMatrix.chainKey) with at least one edit.
+	// Only worked out when first needed, as most overlays made while
+	// replaying a journal are never compiled.
+	private volatile Set<Long> chainKeys;
+
+	private EditOverlay(Node applied, Node undone) {
+		this.applied = applied;
+		this.undone = undone;
+	}
+
+	/*
+	 * Returns a new overlay with the probability of pitch3 following the
+	 * chain pitch1, pitch2 set to the given probability. Any edits that had
+	 * been undone can no longer be redone. Throws an IllegalArgumentException
+	 * if a pitch isn't between 0 and 127 or the probability isn't between 0
+	 * and 1.
+	 */
+	public EditOverlay edit(int pitch1, int pitch2, int pitch3, double probability) {
+		checkPitch(pitch1);
+		checkPitch(pitch2);
+		checkPitch(pitch3);
+		if (!(probability >= 0 && probability <= 1)) {
+			throw new IllegalArgumentException("Probability must be between 0 and 1");
+		}
+		return new EditOverlay(new Node(new Entry(pitch1, pitch2, pitch3, probability), applied), null);
+	}
+
+	private static void checkPitch(int pitch) {
+		if (pitch < 0 || pitch > 127) {
+			throw new IllegalArgumentException("Pitch must be between 0 and 127");
+		}
+	}
+
+	/*
+	 * Returns a new overlay without the most recent edit, or this overlay if
+	 * there is nothing to undo
+	 */
+	public EditOverlay undo() {
+		if (!canUndo()) {
+			return this;
+		}
+		return new EditOverlay(applied.next, new Node(applied.entry, undone));
+	}
+
+	/*
+	 * Returns a new overlay with the most recently undone edit made again, or
+	 * this overlay if there is nothing to redo
+	 */
+	public EditOverlay redo() {
+		if (!canRedo()) {
+			return this;
+		}
+		return new EditOverlay(new Node(undone.entry, applied), undone.next);
+	}
+
+	public boolean canUndo() {
+		return applied != null;
+	}
+
+	public boolean canRedo() {
+		return undone != null;
+	}
+
+	/*
+	 * Returns true if there are no edits to make
+	 */
+	public boolean isEmpty() {
+		return applied == null;
+	}
+
+	/*
+	 * Returns the number of edits made that haven't been undone
+	 */
+	public int size() {
+		return applied == null ? 0 : applied.length;
+	}
+
+	/*
+	 * Returns the keys of every chain with at least one edit. Used to work out
+	 * which rows need compiling again.
+	 */
+	Set<Long> getChainKeys() {
+		Set<Long> keys = chainKeys;
+		if (keys == null) {
+			HashSet<Long> chains = new HashSet<Long>();
+			for (Node node = applied; node != null; node = node.next) {
+				chains.add(NoteMatrix.chainKey(node.entry.pitch1, node.entry.pitch2));
+			}
+			keys = Collections.unmodifiableSet(chains);
+			chainKeys = keys;
+		}
+		return keys;
+	}
+
+	/*
+	 * Method for saving the edits with a model (see ModelFile). Writes the
+	 * number of edits and how many of them have been undone, followed by the
+	 * three pitches and the probability of every edit made and then every
+	 * edit that can be redone, in the order they would be redone.
+	 */
+	void write(DataOutputStream out) throws IOException {
+		int undoneCount = undone == null ? 0 : undone.length;
+		out.writeInt(size() + undoneCount);
+		out.writeInt(undoneCount);
+
+		Entry[] history = new Entry[size()];
+		int i = history.length;
+		for (Node node = applied; node != null; node = node.next) {
+			history[--i] = node.entry;
+		}
+		for (Entry entry : history) {
+			writeEntry(out, entry);
+		}
+		for (Node node = undone; node != null; node = node.next) {
+			writeEntry(out, node.entry);
+		}
+	}
+
+	private static void writeEntry(DataOutputStream out, Entry entry) throws IOException {
+		out.writeInt(entry.pitch1);
+		out.writeInt(entry.pitch2);
+		out.writeInt(entry.pitch3);
+		out.writeDouble(entry.probability);
+	}
+
+	/*
+	 * Method for reading edits saved by write, starting at the given position
+	 * of the buffer. Every edit is made in order and then the ones that had
+	 * been undone are undone again, which leaves exactly the same edits to
+	 * undo and redo as when they were saved. Throws an IOException if the
+	 * edits run past the end of the buffer or aren't valid.
+	 */
+	static EditOverlay read(ByteBuffer buffer, int position) throws IOException {
+		if (position + 8 > buffer.capacity()) {
+			throw new IOException("Saved edits are truncated or corrupt");
+		}
+		int count = buffer.getInt(position);
+		int undoneCount = buffer.getInt(position + 4);
+		if (count < 0 || undoneCount < 0 || undoneCount > count
+				|| position + 8 + count * 20L > buffer.capacity()) {
+			throw new IOException("Saved edits are truncated or corrupt");
+		}
+
+		EditOverlay overlay = EMPTY;
+		int at = position + 8;
+		try {
+			for (int i = 0; i < count; i++) {
+				overlay = overlay.edit(buffer.getInt(at), buffer.getInt(at + 4), buffer.getInt(at + 8),
+						buffer.getDouble(at + 12));
+				at += 20;
+			}
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Saved edits are truncated or corrupt");
+		}
+		for (int i = 0; i < undoneCount; i++) {
+			overlay = overlay.undo();
+		}
+		return overlay;
+	}
+
+	/*
+	 * Method for making every edit that hasn't been undone to a matrix, oldest
+	 * first, so each row ends up exactly as it was when the user edited it
+	 */
+	void applyTo(NoteMatrix matrix) {
+		// The list is most recent first, so it is turned around first
+		Entry[] history = new Entry[size()];
+		int i = history.length;
+		for (Node node = applied; node != null; node = node.next) {
+			history[--i] = node.entry;
+		}
+
+		// The longer contexts each edit also changes are found all at once
+		Map<Long, List<Long>> longer = matrix.findLongerContexts(getChainKeys());
+		for (Entry entry : history) {
+			matrix.setNewProbability(entry.pitch1, entry.pitch2, entry.pitch3, entry.probability,
+					longer.get(NoteMatrix.chainKey(entry.pitch1, entry.pitch2)));
+		}
+	}
+}
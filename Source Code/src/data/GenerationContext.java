@@ -0,0 +1,147 @@
+package data;
+
+/**
+ * @author Benjamin Henshall
+ *
+ *         Class used to store everything needed to generate a single score:
+ *         the settings chosen by the user, and the previous notes, which
+ *         change as notes are added. A new context is used for every score,
+ *         so several scores can be generated at the same time without
+ *         affecting each other.
+ */
+public class GenerationContext {
+
+	// The first two notes of the score
+	private final int firstNote;
+	private final int secondNote;
+
+	// Composition of phrases in the score. An example of how this could look
+	// is {0, 1, 0, 0, 2}, meaning unique phrase 0 is added to the score, then
+	// unique phrase 1, then phrase 0 is added and repeated once, then unique
+	// phrase 2 is added.
+	private final int[] pattern;
+
+	// Tempo and instrument of the score
+	private final int tempo;
+	private final int instrument;
+
+	// Source of the random numbers used to pick each note
+	private final RandomSource random;
+
+	// Number of previous notes used to pick each new note
+	private final int order;
+
+	// The notes that have previously occurred (see NoteMatrix.addToHistory),
+	// and how many of them there are, up to NoteMatrix.MAX_ORDER. Start at the
+	// first two notes, then update as we add more notes to the score.
+	long history;
+	int historyLength;
+
+	public GenerationContext(int firstNote, int secondNote, int[] pattern, int tempo, int instrument) {
+		this(firstNote, secondNote, pattern, tempo, instrument, ThreadLocalRandomSource.INSTANCE);
+	}
+
+	/*
+	 * Constructor used when the score needs to be reproducible. Generating
+	 * twice with sources made from the same seed gives exactly the same score.
+	 */
+	public GenerationContext(int firstNote, int secondNote, int[] pattern, int tempo, int instrument,
+			RandomSource random) {
+		this(firstNote, secondNote, pattern, tempo, instrument, random, NoteMatrix.DEFAULT_ORDER);
+	}
+
+	/*
+	 * Constructor used to choose how many previous notes are used to pick
+	 * each new note. The order can't be higher than the order of the matrix
+	 * the score is generated from.
+	 */
+	public GenerationContext(int firstNote, int secondNote, int[] pattern, int tempo, int instrument,
+			RandomSource random, int order) {
+		NoteMatrix.checkOrder(order);
+		this.random = random;
+		this.firstNote = firstNote;
+		this.secondNote = secondNote;
+		this.pattern = pattern.clone();
+		this.tempo = tempo;
+		this.instrument = instrument;
+		this.order = order;
+		startHistory();
+	}
+
+	/*
+	 * Method for starting the previous notes again at the first two notes
+	 */
+	void startHistory() {
+		history = 0;
+		historyLength = 0;
+		addToHistory(firstNote);
+		addToHistory(secondNote);
+	}
+
+	/*
+	 * Method for adding a note to the previous notes
+	 */
+	void addToHistory(int pitch) {
+		history = NoteMatrix.addToHistory(history, pitch);
+		historyLength = Math.min(historyLength + 1, NoteMatrix.MAX_ORDER);
+	}
+
+	/*
+	 * Method for replacing the most recent of the previous notes
+	 */
+	void replaceLastNote(int pitch) {
+		history = NoteMatrix.replaceLastPitch(history, pitch);
+	}
+
+	/*
+	 * Returns the number of previous notes to pick the next note from. This
+	 * is the order, unless fewer notes have occurred so far.
+	 */
+	int getCurrentOrder() {
+		return Math.min(order, historyLength);
+	}
+
+	/*
+	 * Method for converting a string of letters into an array of ints that can
+	 * be used to denote the composition of the new score. For example, a
+	 * string of "AABAAC" would produce the int array {0, 0, 1, 0, 0, 2}.
+	 */
+	public static int[] parsePattern(String patternAlpha) {
+		// Converts to lower case for simpler managing of ASCII values
+		char[] patternChars = patternAlpha.toLowerCase().toCharArray();
+
+		int[] pattern = new int[patternChars.length];
+		for (int i = 0; i < patternChars.length; i++) {
+			pattern[i] = patternChars[i] - 97;
+		}
+		return pattern;
+	}
+
+	public int getFirstNote() {
+		return firstNote;
+	}
+
+	public int getSecondNote() {
+		return secondNote;
+	}
+
+	public int[] getPattern() {
+		return pattern.clone();
+	}
+
+	public int getTempo() {
+		return tempo;
+	}
+
+	public int getInstrument() {
+		return instrument;
+	}
+
+	public RandomSource getRandom() {
+		return random;
+	}
+
+	public int getOrder() {
+		return order;
+	}
+}
@@ -0,0 +1,172 @@
+package data;
+
+import jm.music.data.Note;
+import jm.music.data.Part;
+import jm.music.data.Phrase;
+import jm.music.data.Score;
+
+/**
+ * @author Benjamin Henshall
+ *
+ *         Class used to generate new scores from a probability matrix. The
+ *         engine itself never changes once created, and everything that
+ *         changes while a score is generated is kept in a GenerationContext,
+ *         so any number of threads can use the same engine at once. The matrix
+ *         must not be edited while it is being generated from.
+ */
+public class GenerationEngine {
+
+	// Constant for changing how long a bar is. A bar of length 2 is equal to a
+	// normal measure.
+	public static final double BAR_LENGTH = 2;
+
+	// Matrix used to pick each new note
+	private final ProbabilityMatrix matrix;
+
+	public GenerationEngine(ProbabilityMatrix matrix) {
+		this.matrix = matrix;
+	}
+
+	/*
+	 * Method for creating a new score using the note matrix and the settings
+	 * stored in the given context. Returns the new score.
+	 */
+	public Score createSong(GenerationContext context) {
+		// The matrix can only pick notes from contexts as long as the ones it
+		// counted
+		if (context.getOrder() > matrix.getOrder()) {
+			throw new IllegalArgumentException(
+					"Order " + context.getOrder() + " is higher than the matrix's order of " + matrix.getOrder());
+		}
+
+		// Creates a new score which we will add phrases to as we go
+		Score newScore = new Score();
+
+		// Sets the tempo of the score to that specified by the user
+		newScore.setTempo(context.getTempo());
+
+		// Starts the previous notes at the first two notes. The context
+		// updates the previous notes as we progress.
+		context.startHistory();
+
+		// Creates two new notes of a quarter length using the first two notes
+		// in our song
+		Note note1 = new Note(context.getFirstNote(), 0.5);
+		Note note2 = new Note(context.getSecondNote(), 0.5);
+
+		// Creates a phrase that will be the first two notes, then adds the
+		// notes we defined above to it.
+		Phrase firstPhrase = new Phrase(0);
+		firstPhrase.add(note1);
+		firstPhrase.add(note2);
+
+		// Creates a new array of phrases uses for storing unique phrases (i.e.
+		// [0] is phrase A, [1] = phrase B etc). Only need to store 26 due to
+		// program only accepting letters of the English alphabet
+		Phrase[] phraseArray = new Phrase[26];
+
+		// Creates the part that we will add phrases to as we go, using the
+		// instrument chosen by the user at start time 0.
+		Part finalPart = new Part("", context.getInstrument(), 0);
+
+		// This loop is used to create the phrases for the score. It creates one
+		// phrase for each unique letter in the composition string. For example,
+		// "AABAAC" would create 3 unique phrases
+		int[] pattern = context.getPattern();
+		for (int i = 0; i < pattern.length; i++) {
+
+			// If we haven't let created a phrase for this unique character,
+			// then create one. The generateNextBar method also updates the
+			// previous notes accordingly.
+			if (phraseArray[pattern[i]] == null) {
+				phraseArray[pattern[i]] = generateNextBar(context);
+			} else {
+				// Else we just update the previous notes, so that if a new
+				// phrase is created afterwards, it takes into account the
+				// correct previous notes.
+				Note[] noteArray = phraseArray[pattern[i]].getNoteArray();
+
+				// If there's only one note in the previous phrase, then it
+				// only replaces the most recent note. Otherwise every note of
+				// the phrase is added in turn.
+				if (noteArray.length > 1) {
+					for (int n = 0; n < noteArray.length; n++) {
+						context.addToHistory(noteArray[n].getPitch());
+					}
+				} else {
+					context.replaceLastNote(noteArray[0].getPitch());
+				}
+			}
+
+			// Copies the phrase to be added into a new phrase so that we can
+			// adjust the start time without editing the phrase we have stored
+			Phrase adjustPhrase = phraseArray[pattern[i]].copy();
+
+			// Adjusts the start time of the newly added phrase so it starts at
+			// the correct bar
+			adjustPhrase.setStartTime(firstPhrase.getEndTime() + (i * BAR_LENGTH));
+
+			// Then adds the phrase to the part to be added to the score later.
+			finalPart.addPhrase(adjustPhrase);
+		}
+
+		// Adds the first phrase to the finalPart
+		finalPart.addPhrase(firstPhrase);
+
+		// And finally adds the final part to the score...
+		newScore.addPart(finalPart);
+
+		// Which is then returned.
+		return newScore;
+	}
+
+	/*
+	 * This method uses logic and the note matrix in order to generate the
+	 * phrases which make up the final score. The previous notes stored in the
+	 * context are updated as notes are added. Every note picked is added to
+	 * the bar, so each note only needs to be picked once.
+	 */
+	public Phrase generateNextBar(GenerationContext context) {
+		// Creates a new phrase which we will gradually add notes to
+		Phrase bar = new Phrase();
+
+		// Double for storing the cumulative time taken up by the bar we are
+		// creating
+		double totalTime = 0;
+
+		// Loop that repeats until we have exceeded the alloted time for the bar
+		while (totalTime < BAR_LENGTH) {
+			Note newNote;
+
+			// If the bar is more than three quarters complete in terms of time,
+			// then...
+			if (totalTime > (BAR_LENGTH / 4) * 3) {
+				// ...Generate a new note using probabilities from the matrix
+				// when given the previous notes
+				newNote = matrix.getNextNote(context.history, context.getCurrentOrder(), context.getRandom());
+
+				// ...And adjust the duration of the note so that it ends on by
+				// the end of the bar
+				newNote.setRhythmValue(BAR_LENGTH - totalTime);
+			} else {
+				// Else generate a new note that will end before the bar's
+				// allocated time. Its rhythm value is picked from only those
+				// that fit, rather than picking notes until one fits.
+				newNote = matrix.getNextNote(context.history, context.getCurrentOrder(), BAR_LENGTH - totalTime,
+						context.getRandom());
+			}
+
+			// ...Update the previous notes
+			context.addToHistory(newNote.getPitch());
+
+			// ...Then add the note to the bar
+			bar.addNote(newNote);
+
+			// ...And update the cumulative time counter
+			totalTime += newNote.getRhythmValue();
+		}
+
+		// Return the completed phrase
+		return bar;
+	}
+}
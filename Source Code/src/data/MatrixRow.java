@@ -1,41 +1,118 @@
 package data;
 
+import java.util.Arrays;
 import java.util.Vector;
 import jm.music.data.Note;
 
 /**
  * @author Benjamin Henshall
  * 
- *         Class used to store a row of probabilities.
+ *         Class used to store a row of probabilities. Everything is stored in
+ *         parallel arrays of primitives rather than an object per pitch, so
+ *         that the matrix stays small and is quick to fill and read.
  */
 public class MatrixRow {
 
+	// Initial capacity of the arrays below. Most chains are only ever followed
+	// by a handful of different pitches, so we start small and grow as needed.
+	private static final int INITIAL_CAPACITY = 2;
+
+	// Rhythm values are rounded to this many steps per beat when deciding
+	// whether two rhythm values are the same, so tiny differences caused by
+	// floating point arithmetic don't create separate entries.
+	private static final double RHYTHM_STEPS_PER_BEAT = 100000.0;
+
+	// Number of bits the pitch is shifted by in the keys of the values table
+	// (see rhythmKey and dynamicKey)
+	private static final int RHYTHM_PITCH_SHIFT = 40;
+	private static final int DYNAMIC_PITCH_SHIFT = 7;
+
+	// Bit set in the keys of dynamics, so they never clash with the keys of
+	// rhythm values and sort after all of them
+	private static final long DYNAMIC_FLAG = 1L << 62;
+
 	// Variable that stores how many times this chain has appeared
 	private int totalCount;
 
-	// Stores the individual probabilities of a note appearing in this chain.
-	// Position of the noteObject in the array is based on the pitch, for
-	// example, the probability of pitch 60 is stored in pitchProbabilities[60].
-	NoteObject[] pitchProbabilities;
-
-	// Stores the total number of pitches (Used to define arrays)
-	int numOfPitches;
+	// Parallel arrays storing the pitches that have been found following this
+	// chain (in ascending order), how many times each one occurred and the
+	// probability of each one occurring. Only pitches that have actually
+	// occurred (or been given a probability by the user) are stored, rather
+	// than one entry for every possible pitch.
+	private int[] pitches;
+	private int[] counts;
+	private double[] probabilities;
+
+	// Number of pitches currently stored in the arrays above
+	private int size;
+
+	// Counts of every rhythm value and dynamic found for each pitch in this
+	// row. Keys combine the pitch and the value (see rhythmKey and dynamicKey).
+	private CountTable values;
+
+	// Tables used to pick notes, built the first time a note is picked after
+	// the probabilities change and set to null whenever they change again.
+	// Only a NoteMatrix picks notes from its rows, while the matrix the
+	// program generates from is compiled (see CompiledModel), so the tables
+	// aren't built at all for rows that are only counted and compiled.
+	private Sampler sampler;
 
-	public MatrixRow(int totalPitches) {
-		numOfPitches = totalPitches;
+	/*
+	 * Class used to store the tables used to pick notes from a row. Never
+	 * changed once built, so a row can be copied and read by several threads
+	 * while sharing it.
+	 */
+	private static final class Sampler {
+		// Alias table used to pick notes in constant time. Segment 0 picks
+		// the pitch, segment 1 + i picks the rhythm value for pitches[i] and
+		// segment 1 + size + i picks its dynamic.
+		final AliasTable aliasTable;
+
+		// Values of the columns in the alias table. Columns in segment 0 are
+		// the pitches, so only the columns after those are used.
+		final double[] sampleValues;
+
+		// Column at which each segment of the alias table starts, and the
+		// running total of the weights of the columns within their segment.
+		// The rhythm values of each pitch are in ascending order, so these
+		// are used to pick a rhythm value from only those short enough to
+		// fit.
+		final int[] segmentStart;
+		final double[] cumulativeWeights;
+
+		Sampler(AliasTable aliasTable, double[] sampleValues, int[] segmentStart, double[] cumulativeWeights) {
+			this.aliasTable = aliasTable;
+			this.sampleValues = sampleValues;
+			this.segmentStart = segmentStart;
+			this.cumulativeWeights = cumulativeWeights;
+		}
+	}
 
+	public MatrixRow() {
 		// Starts the initial count at 0
 		totalCount = 0;
 
-		// Defines the size of the note object array, so it can store the total
-		// number of unique pitches
-		pitchProbabilities = new NoteObject[numOfPitches + 1];
+		pitches = new int[INITIAL_CAPACITY];
+		counts = new int[INITIAL_CAPACITY];
+		probabilities = new double[INITIAL_CAPACITY];
+		size = 0;
 
-		// Loop to instantiate all of the note object array
-		for (int i = 0; i <= numOfPitches; i++) {
-			NoteObject newPitch = new NoteObject(i);
-			pitchProbabilities[i] = newPitch;
-		}
+		values = new CountTable();
+	}
+
+	/*
+	 * Creates a copy of another row, which can be changed without changing the
+	 * original. The tables used to pick notes are never changed once built (new
+	 * ones are built instead), so the copy can share them.
+	 */
+	public MatrixRow(MatrixRow other) {
+		totalCount = other.totalCount;
+		pitches = other.pitches.clone();
+		counts = other.counts.clone();
+		probabilities = other.probabilities.clone();
+		size = other.size;
+		values = new CountTable(other.values);
+		sampler = other.sampler;
 	}
 
 	/*
@@ -46,101 +123,508 @@ public class MatrixRow {
 	}
 
 	/*
-	 * Method for generating a new note using the probabilities in
-	 * pitchProbabilities[].
+	 * Method for combining a pitch and a rhythm value into a key for the
+	 * values table. The rounded rhythm value is stored in the lower bits and
+	 * the pitch above it, so sorting the keys sorts by pitch then rhythm.
+	 */
+	private static long rhythmKey(int pitch, double rhythmValue) {
+		return ((long) pitch << RHYTHM_PITCH_SHIFT) | Math.round(rhythmValue * RHYTHM_STEPS_PER_BEAT);
+	}
+
+	/*
+	 * Method for combining a pitch and a dynamic into a key for the values
+	 * table. Dynamics range from 0 to 127, so they fit into the lower 7 bits.
 	 */
-	public Note getNextNote() {
-		Note note = new Note();
+	private static long dynamicKey(int pitch, int dynamic) {
+		return DYNAMIC_FLAG | ((long) pitch << DYNAMIC_PITCH_SHIFT) | (dynamic & 0x7F);
+	}
+
+	/*
+	 * Method for generating a new note using the probabilities of this row and
+	 * the given source of random numbers.
+	 */
+	public Note getNextNote(RandomSource random) {
+		return getNextNote(Double.POSITIVE_INFINITY, random);
+	}
+
+	/*
+	 * Method for generating a new note whose rhythm value is no longer than
+	 * maxRhythm, e.g. the time left in a bar. The pitch is picked as normal,
+	 * then the rhythm value is picked from only those found for that pitch
+	 * that fit, in proportion to how often they occurred. If none of them fit,
+	 * the note is given a rhythm value of maxRhythm. Only one note is ever
+	 * picked, however little time is left.
+	 */
+	public Note getNextNote(double maxRhythm, RandomSource random) {
+		Sampler tables = getSampler();
+
+		// If none of the pitches have a probability, then there's nothing to
+		// pick from
+		if (tables.aliasTable.isEmpty()) {
+			Note note = new Note();
+			note.setRhythmValue(Math.min(note.getRhythmValue(), maxRhythm));
+			return note;
+		}
+
+		// Picks a pitch using a random number between 0 and 1. The alias table
+		// finds the pitch in constant time rather than adding up the
+		// probabilities one by one until we pass the random number.
+		int index = tables.aliasTable.sample(0, random.nextDouble());
+
+		// Then picks a rhythm and dynamic from the ones found for that pitch.
+		// Pitches the user added by hand have never occurred, so they use an
+		// average rhythm and dynamic instead.
+		double rhythm = pickRhythm(tables, index, maxRhythm, random.nextDouble());
+
+		int dynamic = NoteMatrix.FALLBACK_DYNAMIC;
+		int dynamicColumn = tables.aliasTable.sample(1 + size + index, random.nextDouble());
+		if (dynamicColumn >= 0) {
+			dynamic = (int) tables.sampleValues[dynamicColumn];
+		}
+
+		// Return a note of the picked pitch with the picked rhythm and dynamic
+		return new Note(pitches[index], rhythm, dynamic);
+	}
+
+	/*
+	 * Method for picking a rhythm value no longer than maxRhythm for the pitch
+	 * at the given index, using a random number between 0 and 1.
+	 */
+	private static double pickRhythm(Sampler tables, int index, double maxRhythm, double randomNumber) {
+		double[] sampleValues = tables.sampleValues;
+		double[] cumulativeWeights = tables.cumulativeWeights;
+		int from = tables.segmentStart[1 + index];
+		int to = tables.segmentStart[2 + index];
+		if (from == to) {
+			return Math.min(NoteMatrix.FALLBACK_RHYTHM, maxRhythm);
+		}
+
+		// If even the longest rhythm value fits, then every one of them does,
+		// so the alias table can pick one in constant time
+		if (sampleValues[to - 1] <= maxRhythm) {
+			return sampleValues[tables.aliasTable.sample(1 + index, randomNumber)];
+		}
+
+		// Otherwise finds the first rhythm value that is too long. Everything
+		// before it fits.
+		int fits = Arrays.binarySearch(sampleValues, from, to, maxRhythm);
+		if (fits >= 0) {
+			// Equal values can't occur in the same segment, so this is the
+			// only match and it fits
+			fits++;
+		} else {
+			fits = -fits - 1;
+		}
+		if (fits == from) {
+			return maxRhythm;
+		}
 
-		// Generates a random number between 0 and 1
-		double randomNumber = Math.random();
+		// Then picks the first column whose running total is larger than a
+		// random point between 0 and the total weight of the ones that fit
+		double target = randomNumber * cumulativeWeights[fits - 1];
+		int low = from;
+		int high = fits - 1;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (cumulativeWeights[middle] > target) {
+				high = middle;
+			} else {
+				low = middle + 1;
+			}
+		}
+		return sampleValues[low];
+	}
 
-		// Variable to store the cumulative total of the random numbers so far
-		double ranTotal = 0;
+	/*
+	 * Returns the tables used to pick notes, building them from the current
+	 * probabilities if they have changed since they were last built. Two
+	 * threads may both build them at once, in which case they build the same
+	 * tables.
+	 */
+	private Sampler getSampler() {
+		Sampler tables = sampler;
+		if (tables == null) {
+			tables = buildSampler();
+			sampler = tables;
+		}
+		return tables;
+	}
 
-		// Loop that tries to cycle through total number of pitches unless
-		// broken
-		for (int i = 0; i < numOfPitches + 1; i++) {
-			// Adds the probability of the note we're looking at to the
-			// cumulative total
-			ranTotal = ranTotal + pitchProbabilities[i].getProbability();
+	/*
+	 * Method for building the alias table from the current probabilities
+	 */
+	private Sampler buildSampler() {
+		// The sorted keys are in exactly the order of the segments in the
+		// alias table
+		long[] keys = getSortedValueKeys();
+		int used = keys.length;
+
+		// One segment for the pitches, then one for the rhythm values and one
+		// for the dynamics of each pitch
+		int segments = 1 + size * 2;
+		int[] offsets = new int[segments + 1];
+		double[] weights = new double[size + used];
+		double[] sampleValues = new double[size + used];
+
+		// The first segment is weighted by the probability of each pitch
+		System.arraycopy(probabilities, 0, weights, 0, size);
+		offsets[1] = size;
+
+		// Every other column is weighted by the number of occurrences of its
+		// value, and the size of each segment is counted as we go
+		for (int i = 0; i < used; i++) {
+			int entry = values.indexOf(keys[i]);
+			weights[size + i] = values.getCount(entry);
+			sampleValues[size + i] = values.getValue(entry);
+
+			if (isDynamicKey(keys[i])) {
+				offsets[2 + size + indexOf(getKeyPitch(keys[i]))]++;
+			} else {
+				offsets[2 + indexOf(getKeyPitch(keys[i]))]++;
+			}
+		}
 
-			// If the new total becomes more than the random number we
-			// generated, then we use this note
-			if (randomNumber <= ranTotal) {
-				// Return a note of pitch i with rhythm and dynamic configured
-				// by the note object through this method
-				note = pitchProbabilities[i].returnNote();
+		// Then adds the sizes up so each segment knows where it starts
+		for (int i = 1; i < segments; i++) {
+			offsets[i + 1] += offsets[i];
+		}
 
-				// We've generated our note fairly, so break the loop
-				break;
+		// Works out the running total of the weights within each segment
+		double[] cumulativeWeights = new double[weights.length];
+		for (int segment = 0; segment < segments; segment++) {
+			double total = 0;
+			for (int column = offsets[segment]; column < offsets[segment + 1]; column++) {
+				total += weights[column];
+				cumulativeWeights[column] = total;
 			}
 		}
+		return new Sampler(new AliasTable(weights, offsets, segments), sampleValues, offsets, cumulativeWeights);
+	}
 
-		// Return the note we generated
-		return note;
+	/*
+	 * Returns the keys of the rhythm values and dynamics that still have
+	 * occurrences, sorted so that all of the rhythm values come first,
+	 * grouped by pitch in ascending order of value, followed by all of the
+	 * dynamics grouped by pitch in ascending order of value.
+	 */
+	long[] getSortedValueKeys() {
+		long[] keys = new long[values.size()];
+		int used = 0;
+		for (int i = 0; i < values.size(); i++) {
+			if (values.getCount(i) > 0) {
+				keys[used++] = values.getKey(i);
+			}
+		}
+		Arrays.sort(keys, 0, used);
+		return Arrays.copyOf(keys, used);
+	}
+
+	/*
+	 * Returns true if a key of the values table belongs to a dynamic rather
+	 * than a rhythm value
+	 */
+	static boolean isDynamicKey(long key) {
+		return (key & DYNAMIC_FLAG) != 0;
 	}
 
 	/*
-	 * Method to update the probability to reflect the number of occurrences or
-	 * if the user has edited the probability
+	 * Returns the pitch stored in a key of the values table
 	 */
-	public void updateProbability(int prevNote) {
+	static int getKeyPitch(long key) {
+		if (isDynamicKey(key)) {
+			return (int) ((key & ~DYNAMIC_FLAG) >>> DYNAMIC_PITCH_SHIFT);
+		}
+		return (int) (key >>> RHYTHM_PITCH_SHIFT);
+	}
+
+	/*
+	 * Returns the number of times the value with the given key has occurred,
+	 * and the value itself. Used when saving the row.
+	 */
+	int getValueCount(long key) {
+		return values.getCount(values.indexOf(key));
+	}
+
+	double getValue(long key) {
+		return values.getValue(values.indexOf(key));
+	}
+
+	/*
+	 * Getters for the number of pitches in this row, and the pitch, count and
+	 * probability stored at position i. Used when saving the row.
+	 */
+	int getSize() {
+		return size;
+	}
+
+	int getPitchAt(int index) {
+		return pitches[index];
+	}
+
+	int getCountAt(int index) {
+		return counts[index];
+	}
+
+	double getProbabilityAt(int index) {
+		return probabilities[index];
+	}
+
+	/*
+	 * Methods used when loading a saved row. Pitches must be restored in
+	 * ascending order, and finishRestore must be called once everything has
+	 * been restored so the row can be used to generate notes. Probabilities
+	 * are restored exactly as they were saved, including any edits made by
+	 * the user.
+	 */
+	void restorePitch(int pitch, int count, double probability) {
+		int index = getOrCreate(pitch);
+		counts[index] = count;
+		probabilities[index] = probability;
+		totalCount += count;
+	}
+
+	void restoreRhythm(int pitch, double rhythmValue, int count) {
+		values.add(rhythmKey(pitch, rhythmValue), rhythmValue, count);
+	}
+
+	void restoreDynamic(int pitch, int dynamic, int count) {
+		values.add(dynamicKey(pitch, dynamic), dynamic, count);
+	}
+
+	void finishRestore() {
+		sampler = null;
+	}
+
+	/*
+	 * Method for starting an empty row with the probabilities of another, used
+	 * when the user edits a chain that never occurred. The pitches are given
+	 * the same probabilities without any occurrences, like pitches added by
+	 * hand, and the rhythm values and dynamics found for them are copied so
+	 * the notes are generated exactly as they were from the other row.
+	 */
+	void copyProbabilities(MatrixRow other) {
+		for (int i = 0; i < other.size; i++) {
+			int index = getOrCreate(other.pitches[i]);
+			probabilities[index] = other.probabilities[i];
+		}
+		for (int i = 0; i < other.values.size(); i++) {
+			if (other.values.getCount(i) > 0) {
+				values.add(other.values.getKey(i), other.values.getValue(i), other.values.getCount(i));
+			}
+		}
+		sampler = null;
+	}
+
+	/*
+	 * Returns a copy of this row with only the pitches that have occurred,
+	 * their probabilities worked out from the counts again, so any edits made
+	 * by hand are undone. Returns null if the chain never occurred, i.e. the
+	 * row was only stored because the user edited it. Used when loading a
+	 * model that was saved with the edits made (see ModelFile).
+	 */
+	MatrixRow withoutEdits() {
+		if (totalCount == 0) {
+			return null;
+		}
+
+		MatrixRow row = new MatrixRow(this);
+		int kept = 0;
+		for (int i = 0; i < row.size; i++) {
+			if (row.counts[i] != 0) {
+				row.pitches[kept] = row.pitches[i];
+				row.counts[kept] = row.counts[i];
+				kept++;
+			}
+		}
+		row.size = kept;
+		row.updateProbability();
+		return row;
+	}
+
+	/*
+	 * Returns true if there are no pitches left in this row
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/*
+	 * Method for finding where a pitch is stored in this row. Returns the index
+	 * of the pitch if it exists, otherwise returns (-(insertion point) - 1) as
+	 * specified by Arrays.binarySearch.
+	 */
+	private int indexOf(int pitch) {
+		return Arrays.binarySearch(pitches, 0, size, pitch);
+	}
+
+	/*
+	 * Method for finding where a pitch is stored in this row, adding it (and
+	 * keeping the pitches in ascending order) if this pitch hasn't been seen
+	 * before in this chain.
+	 */
+	private int getOrCreate(int pitch) {
+		int index = indexOf(pitch);
+		if (index >= 0) {
+			return index;
+		}
+
+		// Pitch isn't stored yet, so work out where it should be inserted
+		index = -index - 1;
+
+		// Grows the arrays if they are full
+		if (size == pitches.length) {
+			pitches = Arrays.copyOf(pitches, size * 2);
+			counts = Arrays.copyOf(counts, size * 2);
+			probabilities = Arrays.copyOf(probabilities, size * 2);
+		}
+
+		// Shifts the larger pitches up by one to make room for the new pitch
+		System.arraycopy(pitches, index, pitches, index + 1, size - index);
+		System.arraycopy(counts, index, counts, index + 1, size - index);
+		System.arraycopy(probabilities, index, probabilities, index + 1, size - index);
+
+		pitches[index] = pitch;
+		counts[index] = 0;
+		probabilities[index] = 0;
+		size++;
+
+		// The segments in the alias table no longer match the pitches
+		sampler = null;
+
+		return index;
+	}
+
+	/*
+	 * Returns the probability of the given pitch following this chain
+	 */
+	public double getProbability(int pitch) {
+		int index = indexOf(pitch);
+		if (index < 0) {
+			return 0;
+		}
+		return probabilities[index];
+	}
+
+	/*
+	 * Method to update the probability to reflect the number of occurrences.
+	 * Rows that have no occurrences are never stored in the matrix, with the
+	 * exception of rows the user has edited by hand, so the probabilities of
+	 * those are left alone.
+	 */
+	public void updateProbability() {
 		// If we have at least one occurrence of this chain....
 		if (totalCount != 0) {
-			// Then cycle through all of the pitches and update the
-			// probabilities
-			for (int i = 0; i < numOfPitches; i++) {
-				pitchProbabilities[i].updateProbability(totalCount);
-			}
-		} else {
-			// Else there were no occurrences, but we still want to have some
-			// sort of probability there to keep the program generating. We can
-			// do this by creating an average note of pitch previous note+1 then
-			// adding it to to the list of our probability. This ensures if we
-			// ever hit an "empty" chain, where we had no occurrences, the
-			// program will continually rise in pitches note by note until we
-			// find a chain that DOES have occurrences.
-
-			// Creates a new note of average dynamic and rhythm
-			Note note = new Note();
-			note.setDynamic(70);
-			note.setRhythmValue(0.25);
-
-			// If we're at the max pitch, then we want the new note to be
-			// generated at pitch 0
-			if (prevNote + 1 >= numOfPitches) {
-				note.setPitch(0);
-				pitchProbabilities[0].setNewProbability(1, note);
-			} else {
-				// Else we just create a note that is one pitch above the
-				// previous to create a rising pitch effect
-				note.setPitch(prevNote + 1);
-				pitchProbabilities[prevNote + 1].setNewProbability(1, note);
+			// Then cycle through all of the pitches that have occurred and
+			// update the probabilities by doing number of times the pitch has
+			// occurred divided by total number of chains found
+			for (int i = 0; i < size; i++) {
+				if (counts[i] != 0) {
+					probabilities[i] = (double) counts[i] / (double) totalCount;
+				}
 			}
 		}
+
+		// The tables used to pick notes are built again when they are next
+		// needed
+		sampler = null;
 	}
 
 	/*
-	 * Method used to add a note to the list of probabilities. Adds the note to
-	 * pitchProbabilities[note pitch] and increases the total count of this
-	 * chain
+	 * Method used to add a note to the list of probabilities. Adds to the
+	 * count of the note's pitch, rhythm value and dynamic, and increases the
+	 * total count of this chain
 	 */
 	public void addToProbabilities(Note note) {
-		pitchProbabilities[note.getPitch()].addNewNote(note);
-		totalCount++;
+		countNote(note.getPitch(), note.getRhythmValue(), note.getDynamic(), 1);
+	}
+
+	/*
+	 * Method used to add a note that has already been split into its pitch,
+	 * rhythm value and dynamic, e.g. from NoteTokens
+	 */
+	public void addToProbabilities(int pitch, double rhythmValue, int dynamic) {
+		countNote(pitch, rhythmValue, dynamic, 1);
+	}
+
+	/*
+	 * Method used to remove a note that was previously added to the list of
+	 * probabilities. Once a pitch has no occurrences left it is removed from
+	 * the row.
+	 */
+	public void removeFromProbabilities(Note note) {
+		countNote(note.getPitch(), note.getRhythmValue(), note.getDynamic(), -1);
+	}
+
+	/*
+	 * Method used to remove a note that has already been split into its
+	 * pitch, rhythm value and dynamic
+	 */
+	public void removeFromProbabilities(int pitch, double rhythmValue, int dynamic) {
+		countNote(pitch, rhythmValue, dynamic, -1);
+	}
+
+	/*
+	 * Method used to add (amount = 1) or remove (amount = -1) the counts of
+	 * every note in another row to this row. Used to combine rows that were
+	 * filled separately.
+	 */
+	public void addRow(MatrixRow other, int amount) {
+		for (int i = 0; i < other.size; i++) {
+			if (other.counts[i] != 0) {
+				countPitch(other.pitches[i], other.counts[i] * amount);
+			}
+		}
+		for (int i = 0; i < other.values.size(); i++) {
+			values.add(other.values.getKey(i), other.values.getValue(i), other.values.getCount(i) * amount);
+		}
+	}
+
+	/*
+	 * Method that changes the counts of a note's pitch, rhythm value and
+	 * dynamic by the given amount
+	 */
+	private void countNote(int pitch, double rhythmValue, int dynamic, int amount) {
+		countPitch(pitch, amount);
+		values.add(rhythmKey(pitch, rhythmValue), rhythmValue, amount);
+		values.add(dynamicKey(pitch, dynamic), dynamic, amount);
+	}
+
+	/*
+	 * Method that changes the count of a pitch (and the total count of this
+	 * chain) by the given amount. Once a pitch has no occurrences left it is
+	 * removed from the row.
+	 */
+	private void countPitch(int pitch, int amount) {
+		int index = getOrCreate(pitch);
+		counts[index] += amount;
+		totalCount += amount;
+
+		if (counts[index] == 0) {
+			// Shifts the larger pitches down by one over the removed pitch
+			System.arraycopy(pitches, index + 1, pitches, index, size - index - 1);
+			System.arraycopy(counts, index + 1, counts, index, size - index - 1);
+			System.arraycopy(probabilities, index + 1, probabilities, index, size - index - 1);
+			size--;
+
+			// The segments in the alias table no longer match the pitches
+			sampler = null;
+		}
 	}
 
 	/*
-	 * Method for returning a vector containing a row of probabilities.
+	 * Method for returning a vector containing a row of probabilities, with
+	 * one entry for every pitch below numOfPitches.
 	 */
-	public Vector getProbabilityArray() {
-		Vector prob = new Vector();
+	public Vector<Double> getProbabilityArray(int numOfPitches) {
+		Vector<Double> prob = new Vector<Double>(numOfPitches);
 
-		// Cycles through the NoteObject array, adding the probability to the
-		// vector each time.
+		// Fills the vector with a probability of 0 for every pitch, then sets
+		// the pitches that are actually stored in this row.
 		for (int i = 0; i < numOfPitches; i++) {
-			prob.add(pitchProbabilities[i].getProbability());
+			prob.add(0.0);
+		}
+		for (int i = 0; i < size && pitches[i] < numOfPitches; i++) {
+			prob.set(pitches[i], probabilities[i]);
 		}
 		// The result of this is a vector that represents the row of the
 		// NoteMatrix.
@@ -148,6 +632,14 @@ public class MatrixRow {
 		return prob;
 	}
 
+	/*
+	 * Method for rounding a probability that was set manually, so it displays
+	 * nicely in the matrix table
+	 */
+	private static double round(double probability) {
+		return Math.round(probability * 100000.0) / 100000.0;
+	}
+
 	/*
 	 * Method for setting probabilities in the row. Takes an int representing
 	 * the pitch of the note we're editing and a double for the new probability.
@@ -196,11 +688,15 @@ public class MatrixRow {
 	 */
 	public void setNewProbability(int note, double newProb) {
 
+		// Finds the pitch being edited. If the user is giving a probability to
+		// a pitch that has never followed this chain, it is added to the row.
+		int edited = getOrCreate(note);
+
 		// Variable that stores the current probability of the note
-		double oldProb = pitchProbabilities[note].getProbability();
+		double oldProb = probabilities[edited];
 
 		// Then sets the note to the new probability that the user entered
-		pitchProbabilities[note].setNewProbability(newProb);
+		probabilities[edited] = round(newProb);
 
 		// Variable for storing the total probability left over all notes EXCEPT
 		// for the one being edited.
@@ -208,9 +704,9 @@ public class MatrixRow {
 
 		// Loop that gets the total value for all probabilities summed except
 		// for the note being edited
-		for (int i = 0; i < pitchProbabilities.length; i++) {
-			if (i != note && pitchProbabilities[i].getProbability() != 0) {
-				total += pitchProbabilities[i].getProbability();
+		for (int i = 0; i < size; i++) {
+			if (i != edited && probabilities[i] != 0) {
+				total += probabilities[i];
 			}
 		}
 
@@ -218,12 +714,14 @@ public class MatrixRow {
 
 		// Loop that edits all probabilities except the note that the user
 		// edited by using the formula specified above.
-		for (int i = 0; i < pitchProbabilities.length; i++) {
-			if (i != note && pitchProbabilities[i].getProbability() != 0) {
-				pitchProbabilities[i].setNewProbability((remainder * pitchProbabilities[i].getProbability()) / total
-						+ pitchProbabilities[i].getProbability());
+		for (int i = 0; i < size; i++) {
+			if (i != edited && probabilities[i] != 0) {
+				probabilities[i] = round((remainder * probabilities[i]) / total + probabilities[i]);
 			}
 		}
+
+		// Only this row has changed, so only its tables are built again
+		sampler = null;
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,198 @@
+package data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * @author Benjamin Henshall
+ *
+ *         Class used to read MIDI files and count their chains on several
+ *         threads at once. Each thread fills its own NoteMatrix (a "shard")
+ *         with the files it reads, so no locking is needed while counting. The
+ *         shards are merged together once every file has been read, which
+ *         gives exactly the same counts as adding the files one by one.
+ *
+ *         Files are read through the default TokenCache, so files that have
+ *         been read before don't need parsing a second time. The matrix
+ *         records the hash of each file's contents, so that countImported can
+ *         later find exactly the notes that were counted for it.
+ *
+ *         A Listener can be given to be told as each file is read, and to stop
+ *         reading early.
+ */
+public class MatrixTrainer {
+
+	/*
+	 * Interface used to follow the progress of training. Methods are called
+	 * from the threads reading the files, so they must be thread safe.
+	 */
+	public interface Listener {
+		/*
+		 * Called once a file has been read and counted
+		 */
+		void fileRead(String file);
+
+		/*
+		 * Checked before each file is read. Once this returns true no more
+		 * files are read, and train throws a CancellationException.
+		 */
+		boolean isCancelled();
+	}
+
+	/*
+	 * Reads the given MIDI files using one thread per processor and returns a
+	 * matrix containing the counts of every chain found in them. The
+	 * probabilities of the returned matrix have not been updated.
+	 */
+	public static NoteMatrix train(String[] files) {
+		return train(files, Runtime.getRuntime().availableProcessors());
+	}
+
+	/*
+	 * Reads the given MIDI files using the given number of threads and returns
+	 * a matrix containing the counts of every chain found in them. The
+	 * probabilities of the returned matrix have not been updated.
+	 */
+	public static NoteMatrix train(String[] files, int threads) {
+		return train(files, threads, null);
+	}
+
+	/*
+	 * Reads the given MIDI files using the given number of threads, telling
+	 * the listener (if not null) as each file is read. Throws a
+	 * CancellationException if the listener cancels training before every file
+	 * has been read.
+	 */
+	public static NoteMatrix train(String[] files, int threads, Listener listener) {
+		return train(files, threads, listener, NoteMatrix.DEFAULT_ORDER);
+	}
+
+	/*
+	 * Does the same as above, but returns a matrix of the given order
+	 */
+	public static NoteMatrix train(final String[] files, int threads, final Listener listener, final int order) {
+		// Checked here so a bad order isn't reported as a failure to read the
+		// files
+		NoteMatrix.checkOrder(order);
+
+		// No point starting more threads than there are files
+		threads = Math.max(1, Math.min(threads, files.length));
+
+		// Index of the next file to be read. Each thread takes the next file
+		// as soon as it finishes its last one, so a few large files don't hold
+		// up the rest.
+		final AtomicInteger nextFile = new AtomicInteger(0);
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			// Starts one task per thread, each of which fills its own shard
+			List<Future<NoteMatrix>> shards = new ArrayList<Future<NoteMatrix>>(threads);
+			for (int i = 0; i < threads; i++) {
+				shards.add(pool.submit(new Callable<NoteMatrix>() {
+					@Override
+					public NoteMatrix call() {
+						NoteMatrix shard = new NoteMatrix(0, order);
+						TokenCache cache = TokenCache.getDefault();
+						int file;
+						while (!isCancelled(listener) && (file = nextFile.getAndIncrement()) < files.length) {
+							TokenCache.Entry entry = cache.read(files[file]);
+							shard.addToMatrix(files[file], entry.getHash(), entry.getTokens());
+							if (listener != null) {
+								listener.fileRead(files[file]);
+							}
+						}
+						return shard;
+					}
+				}));
+			}
+
+			// Then merges all of the shards into the first one
+			NoteMatrix matrix = shards.get(0).get();
+			for (int i = 1; i < threads; i++) {
+				matrix.addToMatrix(shards.get(i).get());
+			}
+
+			// Some files were skipped if training was cancelled, so the
+			// counts are incomplete
+			if (isCancelled(listener)) {
+				throw new CancellationException("Training was cancelled");
+			}
+			return matrix;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while reading MIDI files", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Failed to read MIDI files", e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/*
+	 * Returns a matrix of the given order containing exactly the notes that
+	 * were counted for the given files when they were imported, so they can be
+	 * removed with NoteMatrix.removeFromMatrix. "imports" maps each imported
+	 * file to the hash of the contents that were counted (see
+	 * NoteMatrix.getImports). The notes are fetched from the default
+	 * TokenCache by that hash, so a file can be removed even if it has been
+	 * changed or deleted since. If they are no longer cached, the file is
+	 * read again, but only used if its contents haven't changed.
+	 *
+	 * Throws an IllegalArgumentException if a file was never imported, and an
+	 * IllegalStateException if the notes counted for a file can't be found.
+	 * The listener (if not null) is told as each file is found, and can
+	 * cancel, in which case a CancellationException is thrown.
+	 */
+	public static NoteMatrix countImported(String[] files, Map<String, String> imports, Listener listener,
+			int order) {
+		for (String file : files) {
+			if (!imports.containsKey(file)) {
+				throw new IllegalArgumentException(file + " was never added to the matrix");
+			}
+		}
+
+		NoteMatrix removed = new NoteMatrix(0, order);
+		TokenCache cache = TokenCache.getDefault();
+		for (String file : files) {
+			if (isCancelled(listener)) {
+				throw new CancellationException("Removal was cancelled");
+			}
+
+			// A file that couldn't be read when it was imported added nothing
+			String hash = imports.get(file);
+			NoteTokens tokens = NoteTokens.EMPTY;
+			if (hash != null) {
+				tokens = cache.getTokensByHash(hash);
+			}
+			if (tokens == null) {
+				TokenCache.Entry entry = cache.read(file);
+				if (!hash.equals(entry.getHash())) {
+					throw new IllegalStateException(file + " has changed or been deleted since it was imported,"
+							+ " and the notes counted for it are no longer cached");
+				}
+				tokens = entry.getTokens();
+			}
+
+			removed.addToMatrix(file, hash, tokens);
+			if (listener != null) {
+				listener.fileRead(file);
+			}
+		}
+		return removed;
+	}
+
+	/*
+	 * Returns true if there is a listener and it has cancelled training
+	 */
+	private static boolean isCancelled(Listener listener) {
+		return listener != null && listener.isCancelled();
+	}
+}
@@ -0,0 +1,410 @@
+package data;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * @author Benjamin Henshall
+ *
+ *         Class used to read the tokens of a MIDI file straight from its bytes.
+ *         Reading a file through jMusic creates an object for every MIDI event,
+ *         then a Score made up of Parts, Phrases and Notes, only for the
+ *         matrix to copy the pitch, rhythm value and dynamic out of each note.
+ *         This reader goes from the bytes to those three values without
+ *         creating any of those objects.
+ *
+ *         The tokens are exactly the same as the ones jMusic would produce, so
+ *         the matrix doesn't change. That means copying how jMusic reads a
+ *         file, including its quirks:
+ *
+ *         - Notes that overlap are put into separate phrases ("voices"). A
+ *         note goes in the first voice that has finished (within 0.08 of a
+ *         beat), and a new voice is started if none have.
+ *
+ *         - A gap of less than 0.25 of a beat before a note is added on to the
+ *         note before it, while a longer gap becomes a rest.
+ *
+ *         - A note ends at the next note off (or note on with a velocity of 0)
+ *         of the same pitch on any channel, and each note off can only end one
+ *         note.
+ *
+ *         - The time before a meta event jMusic doesn't know about is lost.
+ *
+ *         Files that jMusic reads in a way that isn't worth copying, such as
+ *         ones containing system exclusive messages or more than 100 voices in
+ *         one track, make read throw an IOException, so the caller can read
+ *         them with jMusic instead.
+ */
+public class MidiTokenReader {
+
+	// Most voices jMusic can put in one track
+	private static final int MAX_VOICES = 100;
+
+	// Notes closer than this to the end of a voice (in beats) still go in it
+	private static final double VOICE_TOLERANCE = 0.08;
+
+	// Shortest gap (in beats) that becomes a rest rather than being added on
+	// to the note before it
+	private static final double SHORTEST_REST = 0.25;
+
+	// Kinds of event that matter when working out the notes. Every other event
+	// only moves the time on.
+	private static final byte OTHER = 0;
+	private static final byte NOTE_ON = 1;
+	private static final byte NOTE_OFF = 2;
+
+	// Pitch given to a note off once it has ended a note, as jMusic does, so
+	// it can't end another one
+	private static final int USED_PITCH = 255;
+
+	// Dynamic given to rests
+	private static final int REST_DYNAMIC = 0;
+
+	// The file being read, and the position of the next byte to read
+	private final byte[] data;
+	private int position;
+
+	// Ticks per beat, read from the header
+	private int ppqn;
+
+	// Events of the track currently being read, in parallel arrays. Only the
+	// time since the previous event is kept for each event, as in the file.
+	private int eventCount;
+	private int[] deltas = new int[256];
+	private byte[] kinds = new byte[256];
+	private int[] eventPitches = new int[256];
+	private int[] velocities = new int[256];
+
+	// Notes of each voice of the current track, in the order the voices were
+	// started. Each voice's notes are kept in their own arrays, as notes are
+	// added to several voices at once.
+	private int voiceCount;
+	private double[] voiceEnd = new double[MAX_VOICES];
+	private int[] voiceSize = new int[MAX_VOICES];
+	private int[][] voicePitches = new int[MAX_VOICES][];
+	private double[][] voiceRhythms = new double[MAX_VOICES][];
+	private int[][] voiceDynamics = new int[MAX_VOICES][];
+
+	// Tokens of every track read so far
+	private int[] phraseStart = new int[16];
+	private int phraseCount;
+	private int[] pitches = new int[1024];
+	private double[] rhythms = new double[1024];
+	private int[] dynamics = new int[1024];
+	private int noteCount;
+
+	private MidiTokenReader(byte[] data) {
+		this.data = data;
+	}
+
+	/*
+	 * Reads the tokens of the given MIDI file contents. Throws an IOException
+	 * if the file isn't valid, or is read by jMusic in a way this reader
+	 * doesn't copy, in which case it should be read with jMusic instead.
+	 */
+	public static NoteTokens read(byte[] contents) throws IOException {
+		return new MidiTokenReader(contents).readFile();
+	}
+
+	private NoteTokens readFile() throws IOException {
+		// jMusic expects a header of exactly six bytes
+		if (readInt() != 0x4D546864 || readInt() != 6) {
+			throw new IOException("Not a standard MIDI file header");
+		}
+		readShort();
+		int numOfTracks = readShort();
+		ppqn = readShort();
+		if (ppqn <= 0) {
+			throw new IOException("Unsupported time division " + ppqn);
+		}
+
+		for (int track = 0; track < numOfTracks; track++) {
+			readTrack();
+			addTrackTokens();
+		}
+
+		return new NoteTokens(Arrays.copyOf(phraseStart, phraseCount + 1), Arrays.copyOf(pitches, noteCount),
+				Arrays.copyOf(rhythms, noteCount), Arrays.copyOf(dynamics, noteCount));
+	}
+
+	/*
+	 * Method for reading the events of the next track into the event arrays.
+	 * Like jMusic, the length of the track is ignored and events are read until
+	 * the end of track event.
+	 */
+	private void readTrack() throws IOException {
+		if (readInt() != 0x4D54726B) {
+			throw new IOException("Track started in wrong place");
+		}
+		readInt();
+
+		eventCount = 0;
+		int runningStatus = 0;
+		while (true) {
+			int delta = readVarLength();
+			int status = readUnsignedByte();
+
+			// A data byte means the status of the previous event is used again
+			if (status < 0x80) {
+				position--;
+				status = runningStatus;
+				// jMusic also reuses the status of meta and system messages,
+				// which isn't worth copying
+				if (status < 0x80 || status >= 0xF0) {
+					throw new IOException("Unsupported running status");
+				}
+			}
+			runningStatus = status;
+
+			if (status == 0xFF) {
+				int type = readUnsignedByte();
+				int length = readVarLength();
+				if (type == 0x2F) {
+					// End of track. jMusic doesn't read the (empty) data.
+					addEvent(delta, OTHER, 0, 0);
+					return;
+				}
+
+				// jMusic reads a fixed number of bytes for the meta events it
+				// knows, whatever length the file gives, and skips the others
+				// along with the time before them
+				int expected = getMetaLength(type);
+				if (expected < 0) {
+					skip(length);
+				} else if (expected != length) {
+					throw new IOException("Unexpected length of meta event " + type);
+				} else {
+					skip(length);
+					addEvent(delta, OTHER, 0, 0);
+				}
+			} else if (status >= 0xF0) {
+				throw new IOException("Unsupported system exclusive message");
+			} else {
+				int command = status >> 4;
+				if (command == 0x8 || command == 0x9) {
+					int pitch = readUnsignedByte();
+					int velocity = readUnsignedByte();
+					if (pitch > 127) {
+						throw new IOException("Invalid pitch " + pitch);
+					}
+					addEvent(delta, command == 0x9 ? NOTE_ON : NOTE_OFF, pitch, velocity);
+				} else {
+					// Program changes and channel pressure have one data byte,
+					// everything else two
+					skip(command == 0xC || command == 0xD ? 1 : 2);
+					addEvent(delta, OTHER, 0, 0);
+				}
+			}
+		}
+	}
+
+	/*
+	 * Returns the number of bytes jMusic reads for a meta event of the given
+	 * type, or -1 if jMusic skips it
+	 */
+	private static int getMetaLength(int type) {
+		switch (type) {
+		case 0x51:
+			// Tempo
+			return 3;
+		case 0x58:
+			// Time signature
+			return 4;
+		case 0x59:
+			// Key signature
+			return 2;
+		default:
+			return -1;
+		}
+	}
+
+	/*
+	 * Method for adding an event to the event arrays, growing them if needed
+	 */
+	private void addEvent(int delta, byte kind, int pitch, int velocity) {
+		if (eventCount == deltas.length) {
+			int length = eventCount * 2;
+			deltas = Arrays.copyOf(deltas, length);
+			kinds = Arrays.copyOf(kinds, length);
+			eventPitches = Arrays.copyOf(eventPitches, length);
+			velocities = Arrays.copyOf(velocities, length);
+		}
+		deltas[eventCount] = delta;
+		kinds[eventCount] = kind;
+		eventPitches[eventCount] = pitch;
+		velocities[eventCount] = velocity;
+		eventCount++;
+	}
+
+	/*
+	 * Method for turning the events of the current track into notes, sorted
+	 * into voices in the same way as jMusic, then adding each voice as a
+	 * phrase of the tokens
+	 */
+	private void addTrackTokens() throws IOException {
+		voiceCount = 0;
+
+		// Time of the current event in beats. Worked out by adding up each
+		// event's time in the same order as jMusic, so the result is exactly
+		// the same.
+		double time = 0.0;
+		for (int i = 0; i < eventCount; i++) {
+			time += (double) deltas[i] / (double) ppqn;
+			if (kinds[i] == NOTE_ON && velocities[i] > 0) {
+				addNote(i, time);
+			}
+		}
+
+		for (int voice = 0; voice < voiceCount; voice++) {
+			int size = voiceSize[voice];
+			ensureNoteCapacity(noteCount + size);
+			System.arraycopy(voicePitches[voice], 0, pitches, noteCount, size);
+			System.arraycopy(voiceRhythms[voice], 0, rhythms, noteCount, size);
+			System.arraycopy(voiceDynamics[voice], 0, dynamics, noteCount, size);
+			noteCount += size;
+
+			if (phraseCount + 1 == phraseStart.length) {
+				phraseStart = Arrays.copyOf(phraseStart, phraseStart.length * 2);
+			}
+			phraseStart[++phraseCount] = noteCount;
+		}
+	}
+
+	/*
+	 * Method for adding the note started by the given event, which happens at
+	 * the given time, to the right voice
+	 */
+	private void addNote(int event, double time) throws IOException {
+		// Finds the first voice that has finished, or starts a new one
+		int voice = -1;
+		for (int i = 0; i < voiceCount; i++) {
+			if (voiceEnd[i] <= time + VOICE_TOLERANCE) {
+				voice = i;
+				break;
+			}
+		}
+		if (voice == -1) {
+			if (voiceCount == MAX_VOICES) {
+				throw new IOException("Too many voices");
+			}
+			voice = voiceCount++;
+			voiceEnd[voice] = time;
+			voiceSize[voice] = 0;
+			if (voicePitches[voice] == null) {
+				voicePitches[voice] = new int[16];
+				voiceRhythms[voice] = new double[16];
+				voiceDynamics[voice] = new int[16];
+			}
+		}
+
+		// Fills any gap since the voice's last note, either by making that note
+		// longer or by adding a rest
+		if (time > voiceEnd[voice] && voiceSize[voice] > 0) {
+			double gap = time - voiceEnd[voice];
+			if (gap < SHORTEST_REST) {
+				int last = voiceSize[voice] - 1;
+				voiceRhythms[voice][last] = Math.max(0.0, voiceRhythms[voice][last] + gap);
+			} else {
+				addToVoice(voice, Integer.MIN_VALUE, gap, REST_DYNAMIC);
+			}
+			voiceEnd[voice] = voiceEnd[voice] + gap;
+		}
+
+		double rhythm = findNoteLength(event) / (double) ppqn;
+		addToVoice(voice, eventPitches[event], rhythm, Math.min(127, velocities[event]));
+		voiceEnd[voice] = voiceEnd[voice] + rhythm;
+	}
+
+	/*
+	 * Returns the length in ticks of the note started by the given event,
+	 * which is the time until the next unused note off of the same pitch. The
+	 * note off is then marked as used. Returns 0 if there isn't one, as jMusic
+	 * does.
+	 */
+	private long findNoteLength(int event) {
+		int pitch = eventPitches[event];
+		long ticks = 0;
+		for (int i = event + 1; i < eventCount; i++) {
+			ticks += deltas[i];
+			if (ticks > 0 && eventPitches[i] == pitch
+					&& (kinds[i] == NOTE_OFF || (kinds[i] == NOTE_ON && velocities[i] == 0))) {
+				eventPitches[i] = USED_PITCH;
+				return ticks;
+			}
+		}
+		return 0;
+	}
+
+	/*
+	 * Method for adding a note to the end of a voice
+	 */
+	private void addToVoice(int voice, int pitch, double rhythm, int dynamic) {
+		int size = voiceSize[voice];
+		if (size == voicePitches[voice].length) {
+			voicePitches[voice] = Arrays.copyOf(voicePitches[voice], size * 2);
+			voiceRhythms[voice] = Arrays.copyOf(voiceRhythms[voice], size * 2);
+			voiceDynamics[voice] = Arrays.copyOf(voiceDynamics[voice], size * 2);
+		}
+		voicePitches[voice][size] = pitch;
+		voiceRhythms[voice][size] = rhythm;
+		voiceDynamics[voice][size] = dynamic;
+		voiceSize[voice] = size + 1;
+	}
+
+	/*
+	 * Grows the token arrays so they can hold at least the given number of
+	 * notes
+	 */
+	private void ensureNoteCapacity(int capacity) {
+		if (capacity > pitches.length) {
+			int length = Math.max(capacity, pitches.length * 2);
+			pitches = Arrays.copyOf(pitches, length);
+			rhythms = Arrays.copyOf(rhythms, length);
+			dynamics = Arrays.copyOf(dynamics, length);
+		}
+	}
+
+	/*
+	 * Methods for reading big endian numbers from the file. Throw an
+	 * IOException if the file ends too soon.
+	 */
+	private int readUnsignedByte() throws IOException {
+		if (position >= data.length) {
+			throw new IOException("Unexpected end of file");
+		}
+		return data[position++] & 0xFF;
+	}
+
+	private int readShort() throws IOException {
+		return (short) ((readUnsignedByte() << 8) | readUnsignedByte());
+	}
+
+	private int readInt() throws IOException {
+		return (readUnsignedByte() << 24) | (readUnsignedByte() << 16) | (readUnsignedByte() << 8)
+				| readUnsignedByte();
+	}
+
+	/*
+	 * Reads a variable length number, made up of 7 bits from each byte until
+	 * a byte without the top bit set
+	 */
+	private int readVarLength() throws IOException {
+		int value = readUnsignedByte();
+		if ((value & 0x80) != 0) {
+			value &= 0x7F;
+			int b;
+			do {
+				b = readUnsignedByte();
+				value = (value << 7) + (b & 0x7F);
+			} while ((b & 0x80) != 0);
+		}
+		return value;
+	}
+
+	private void skip(int length) throws IOException {
+		if (length < 0 || length > data.length - position) {
+			throw new IOException("Unexpected end of file");
+		}
+		position += length;
+	}
+}
@@ -0,0 +1,349 @@
+package data;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author Benjamin Henshall
+ *
+ *         Class used to save a trained NoteMatrix to a file and load it again
+ *         without having to read every MIDI file in again. The file is made up
+ *         of flat arrays of numbers, so it can be mapped straight into
+ *         memory and used to generate notes in place. Nothing is copied onto
+ *         the heap when the file is opened apart from the list of imported
+ *         files and the user's edits, so even a very large model opens almost
+ *         instantly. If the matrix needs to be edited or added to,
+ *         toNoteMatrix loads the whole file into a normal NoteMatrix.
+ *
+ *         The probabilities are saved with the user's edits already made, so
+ *         scores can be generated straight from the file. The edits are saved
+ *         as well, including any that can be redone, so they can still be
+ *         undone after loading and are made again on top of the new counts
+ *         when more files are imported (see ModelStore).
+ *
+ *         Every number in the file is big-endian. The file starts with a
+ *         header, followed by the sections of a CompiledModel written out one
+ *         after another in the order listed in SparseModel (padded so the
+ *         longs and doubles start on a multiple of 8 bytes), and finally the
+ *         list of files the model was trained on along with the hash of the
+ *         contents counted for each one, followed by the edits (see
+ *         EditOverlay.write). The alias tables are saved along
+ *         with the weights, so notes are picked from the mapped file in
+ *         constant time without building anything when the file is opened.
+ */
+public class ModelFile extends SparseModel {
+
+	// Extension used for saved model files
+	public static final String EXTENSION = "jmm";
+
+	// Number at the start of every model file ("JMMX" in ASCII), used to check
+	// the file really is a model file
+	private static final int MAGIC = 0x4A4D4D58;
+
+	// Version of the file layout. Must be increased whenever the layout
+	// changes, so that old files are rejected rather than read incorrectly.
+	private static final int VERSION = 6;
+
+	// Number of ints in the header
+	private static final int HEADER_INTS = 10;
+
+	// The file the model was opened from
+	private final File file;
+
+	// The mapped file. Only absolute gets are used, so the position of the
+	// buffer never changes and several threads can read it at once.
+	private final ByteBuffer buffer;
+
+	// Number of rows and entries in the PITCH_OCCURRENCES section, read from
+	// the header
+	private final int rowCount;
+	private final int occurrencesLength;
+
+	// Positions in the file at which each section starts
+	private final int[] intSections;
+	private final int rowKeys;
+	private final int[] doubleSections;
+
+	// Files the model was trained on, and the hash of the contents counted
+	// for each one (see NoteMatrix.getImports)
+	private final String[] imports;
+	private final String[] hashes;
+
+	// Probabilities the user edited by hand, which have already been made to
+	// the probabilities saved in the file
+	private final EditOverlay edits;
+
+	private ModelFile(File file, ByteBuffer buffer) throws IOException {
+		super(readHeader(buffer, 8), readHeader(buffer, 12));
+		this.file = file;
+		this.buffer = buffer;
+
+		int order = getOrder();
+		rowCount = buffer.getInt(16);
+		int successors = buffer.getInt(20);
+		int rhythms = buffer.getInt(24);
+		int dynamics = buffer.getInt(28);
+		int importCount = buffer.getInt(32);
+		occurrencesLength = buffer.getInt(36);
+
+		// Works out where each section starts. Done with longs so a corrupt
+		// header can't overflow and point inside the file.
+		long position = HEADER_INTS * 4;
+		long[] intLengths = getIntSectionLengths(occurrencesLength, rowCount, successors, rhythms, dynamics);
+		long[] intStarts = new long[INT_SECTIONS];
+		for (int i = 0; i < INT_SECTIONS; i++) {
+			intStarts[i] = position;
+			position += intLengths[i] * 4;
+		}
+		position = (position + 7) & ~7L;
+		long rowKeysStart = position;
+		position += rowCount * 8L;
+		long[] doubleLengths = getDoubleSectionLengths(successors, rhythms, dynamics);
+		long[] doubleStarts = new long[DOUBLE_SECTIONS];
+		for (int i = 0; i < DOUBLE_SECTIONS; i++) {
+			doubleStarts[i] = position;
+			position += doubleLengths[i] * 8;
+		}
+		if (order < NoteMatrix.MIN_ORDER || order > NoteMatrix.MAX_ORDER || occurrencesLength < 0 || rowCount < 0
+				|| successors < 0 || rhythms < 0 || dynamics < 0 || importCount < 0
+				|| position > buffer.capacity()) {
+			throw new IOException("Model file is truncated or corrupt");
+		}
+
+		intSections = new int[INT_SECTIONS];
+		for (int i = 0; i < INT_SECTIONS; i++) {
+			intSections[i] = (int) intStarts[i];
+		}
+		rowKeys = (int) rowKeysStart;
+		doubleSections = new int[DOUBLE_SECTIONS];
+		for (int i = 0; i < DOUBLE_SECTIONS; i++) {
+			doubleSections[i] = (int) doubleStarts[i];
+		}
+
+		// Reads the list of imported files, which is the only thing copied
+		// out of the file. Each file is saved as its path followed by its
+		// hash, or an empty string if it couldn't be read.
+		imports = new String[importCount];
+		hashes = new String[importCount];
+		int at = (int) position;
+		for (int i = 0; i < importCount * 2; i++) {
+			if (at + 4 > buffer.capacity()) {
+				throw new IOException("Model file is truncated or corrupt");
+			}
+			int length = buffer.getInt(at);
+			at += 4;
+			if (length < 0 || at + length > buffer.capacity()) {
+				throw new IOException("Model file is truncated or corrupt");
+			}
+			byte[] bytes = new byte[length];
+			for (int b = 0; b < length; b++) {
+				bytes[b] = buffer.get(at + b);
+			}
+			String value = new String(bytes, StandardCharsets.UTF_8);
+			if (i % 2 == 0) {
+				imports[i / 2] = value;
+			} else {
+				hashes[i / 2] = value.isEmpty() ? null : value;
+			}
+			at += length;
+		}
+
+		edits = EditOverlay.read(buffer, at);
+	}
+
+	/*
+	 * Checks that the buffer holds a model file of the current version, and
+	 * returns the int at the given position of its header
+	 */
+	private static int readHeader(ByteBuffer buffer, int position) throws IOException {
+		if (buffer.capacity() < HEADER_INTS * 4 || buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a model file");
+		}
+		if (buffer.getInt(4) != VERSION) {
+			throw new IOException("Unsupported model file version " + buffer.getInt(4));
+		}
+		return buffer.getInt(position);
+	}
+
+	/*
+	 * Opens a saved model by mapping the file into memory. The file is only
+	 * read as it is used, so this takes the same short time however large the
+	 * model is.
+	 */
+	public static ModelFile open(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			// A single mapping can't be larger than 2GB
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Model file is too large to open: " + file);
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new ModelFile(file, buffer);
+		} finally {
+			// The mapping stays valid after the channel is closed
+			channel.close();
+		}
+	}
+
+	/*
+	 * Saves the given matrix to a file, along with the list of files it was
+	 * trained on and the given edits. The edits are made to a copy of the
+	 * matrix, and its probabilities updated, so that the saved file is ready
+	 * to generate from.
+	 */
+	public static void save(NoteMatrix matrix, EditOverlay edits, File file) throws IOException {
+		NoteMatrix edited = matrix.copyOnWrite();
+		edited.updateProbabilities();
+		edits.applyTo(edited);
+		save(CompiledModel.compile(edited), matrix.getImports(), edits, file);
+	}
+
+	/*
+	 * Saves a model that has already been compiled with the given edits made
+	 * to it, along with the files it was trained on mapped to the hash of
+	 * their contents, and the edits themselves. The sections of the file are
+	 * exactly the arrays of the compiled model.
+	 *
+	 * The model is written to a temporary file in the same folder, which is
+	 * then moved over the old file. A ModelFile opened from the old file keeps
+	 * its mapping of the old contents, so the file the user loaded can be
+	 * saved over while it is still being generated from (it would otherwise
+	 * be cut short under the mapping, and on Windows can't be written to at
+	 * all). The caller should open the new file afterwards if it wants to use
+	 * it.
+	 */
+	public static void save(CompiledModel model, Map<String, String> imports, EditOverlay edits, File file)
+			throws IOException {
+		File temp = File.createTempFile("model", ".tmp", file.getAbsoluteFile().getParentFile());
+		try {
+			write(model, imports, edits, temp);
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+	}
+
+	private static void write(CompiledModel model, Map<String, String> imports, EditOverlay edits, File file)
+			throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(model.getOrder());
+			out.writeInt(model.getNumOfPitches());
+			out.writeInt(model.getRowCount());
+			out.writeInt(model.getSuccessorCount());
+			out.writeInt(model.getRhythmCount());
+			out.writeInt(model.getDynamicCount());
+			out.writeInt(imports.size());
+			out.writeInt(model.getOccurrencesLength());
+
+			model.writeSections(out);
+
+			for (Map.Entry<String, String> imported : imports.entrySet()) {
+				writeString(out, imported.getKey());
+				writeString(out, imported.getValue() == null ? "" : imported.getValue());
+			}
+			edits.write(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/*
+	 * Getters for entry i of a section, and the key and number of rows. Used
+	 * by SparseModel to generate straight from the mapped file.
+	 */
+	@Override
+	int getInt(int section, int index) {
+		return buffer.getInt(intSections[section] + index * 4);
+	}
+
+	@Override
+	double getDouble(int section, int index) {
+		return buffer.getDouble(doubleSections[section] + index * 8);
+	}
+
+	@Override
+	long getRowKey(int row) {
+		return buffer.getLong(rowKeys + row * 8);
+	}
+
+	@Override
+	int getRowCount() {
+		return rowCount;
+	}
+
+	@Override
+	int getOccurrencesLength() {
+		return occurrencesLength;
+	}
+
+	/*
+	 * Returns the file the model was opened from
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/*
+	 * Returns the files the model was trained on
+	 */
+	public String[] getImports() {
+		return imports.clone();
+	}
+
+	/*
+	 * Returns the files the model was trained on, mapped to the hash of the
+	 * contents counted for each one
+	 */
+	public Map<String, String> getImportHashes() {
+		LinkedHashMap<String, String> map = new LinkedHashMap<String, String>();
+		for (int i = 0; i < imports.length; i++) {
+			map.put(imports[i], hashes[i]);
+		}
+		return map;
+	}
+
+	/*
+	 * Returns the probabilities the user edited by hand before the model was
+	 * saved
+	 */
+	public EditOverlay getEdits() {
+		return edits;
+	}
+
+	/*
+	 * Loads the whole file into a NoteMatrix, which can then be edited or have
+	 * more files added to it. The rows the user edited are put back to just
+	 * the counts, as the edits are kept separately (see getEdits).
+	 */
+	@Override
+	public NoteMatrix toNoteMatrix() {
+		NoteMatrix matrix = super.toNoteMatrix();
+		matrix.removeEdits(edits.getChainKeys());
+		for (int i = 0; i < imports.length; i++) {
+			matrix.restoreImport(imports[i], hashes[i]);
+		}
+		return matrix;
+	}
+}
@@ -0,0 +1,282 @@
+package data;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author Benjamin Henshall
+ *
+ *         Class used to share the note matrix between the threads editing it
+ *         and the threads generating from it. The store holds the current
+ *         ModelVersion, which never changes. Rather than changing the matrix
+ *         in place, a change is made to a copy of the current version's counts
+ *         that only copies the rows it changes, and only the changed rows are
+ *         compiled again. The new version then replaces the old one in one
+ *         atomic step.
+ *
+ *         Probabilities the user edits by hand are kept in an EditOverlay
+ *         rather than changing the counts, and are made on top of the counts
+ *         each time a new version is compiled. They therefore carry on being
+ *         used when files are imported or removed, and can be undone and
+ *         redone. If the store has an EditJournal, every edit is also saved
+ *         to it.
+ *
+ *         Threads generating scores just fetch the current version and keep
+ *         using it, without ever taking a lock, so they never see a change
+ *         half made. If two changes are made at once, the one that finishes
+ *         second is made again to the version the first one published, so no
+ *         change is ever lost.
+ */
+public class ModelStore {
+
+	/*
+	 * Interface for a change to the counts of a matrix, such as adding or
+	 * removing files. May be applied more than once if another change is
+	 * published while it is being made.
+	 */
+	public interface Edit {
+		/*
+		 * Makes the change to the given matrix
+		 */
+		void apply(NoteMatrix matrix);
+	}
+
+	// Version currently published. Starts with no matrix and no edits.
+	private final AtomicReference<ModelVersion> current = new AtomicReference<ModelVersion>(
+			new ModelVersion(0, null, EditOverlay.EMPTY, null));
+
+	// Journal the edits are saved to, or null if they are only kept in
+	// memory
+	private EditJournal journal;
+
+	/*
+	 * Returns the version currently published
+	 */
+	public ModelVersion getVersion() {
+		return current.get();
+	}
+
+	/*
+	 * Returns the model currently published, or null if there isn't a matrix
+	 * yet
+	 */
+	public ProbabilityMatrix getModel() {
+		return current.get().getModel();
+	}
+
+	/*
+	 * Method for replacing the current counts with a whole new matrix, such
+	 * as the one built from the first files imported. The current edits are
+	 * made on top of it. The matrix must not be changed afterwards.
+	 */
+	public ModelVersion publish(NoteMatrix matrix) {
+		matrix.updateProbabilities();
+		while (true) {
+			ModelVersion previous = current.get();
+			ModelVersion next = new ModelVersion(previous.getNumber() + 1, matrix, previous.getEdits(),
+					compile(matrix, previous.getEdits(), null, null));
+			if (current.compareAndSet(previous, next)) {
+				return next;
+			}
+		}
+	}
+
+	/*
+	 * Method for replacing the current version with a model loaded from a
+	 * file. The edits saved with the model replace the current ones, so they
+	 * can be undone and are made again when files are imported or removed.
+	 * The journal is closed, as its edits were made to the previous matrix.
+	 */
+	public synchronized ModelVersion publish(ModelFile model) {
+		closeJournal();
+		while (true) {
+			ModelVersion previous = current.get();
+			ModelVersion next = new ModelVersion(previous.getNumber() + 1, null, model.getEdits(), model);
+			if (current.compareAndSet(previous, next)) {
+				return next;
+			}
+		}
+	}
+
+	/*
+	 * Method for replacing the model of the given version with the same model
+	 * opened again from the file it was just saved to, so the old file is no
+	 * longer used. The edits and the journal are kept, as nothing about the
+	 * model has changed. Returns false without publishing anything if another
+	 * version has been published since the given one.
+	 */
+	public boolean reopen(ModelVersion expected, ModelFile model) {
+		ModelVersion next = new ModelVersion(expected.getNumber() + 1, null, expected.getEdits(), model);
+		return current.compareAndSet(expected, next);
+	}
+
+	/*
+	 * Method for making a change to the counts of the matrix and publishing
+	 * it as a new version, with the current edits made on top. The change is
+	 * made to a copy of the current counts, so the current version is never
+	 * changed. Throws an IllegalStateException if there isn't a matrix yet.
+	 */
+	public ModelVersion edit(Edit edit) {
+		while (true) {
+			ModelVersion previous = current.get();
+			if (previous.getModel() == null) {
+				throw new IllegalStateException("There is no matrix to edit");
+			}
+
+			NoteMatrix matrix = previous.copyMatrix();
+			edit.apply(matrix);
+			matrix.updateProbabilities();
+
+			ModelVersion next = new ModelVersion(previous.getNumber() + 1, matrix, previous.getEdits(),
+					compile(matrix, previous.getEdits(), previous, matrix.getOwnRows()));
+			if (current.compareAndSet(previous, next)) {
+				return next;
+			}
+		}
+	}
+
+	/*
+	 * Method for setting the probability of pitch3 following the chain
+	 * pitch1, pitch2 by hand. The other probabilities of the chain are
+	 * changed to keep the total at 1 (see MatrixRow.setNewProbability).
+	 */
+	public synchronized ModelVersion setProbability(int pitch1, int pitch2, int pitch3, double probability) {
+		ModelVersion next = publishEdits(current.get().getEdits().edit(pitch1, pitch2, pitch3, probability));
+		if (journal != null) {
+			try {
+				journal.writeEdit(pitch1, pitch2, pitch3, probability);
+			} catch (IOException e) {
+				reportJournalError(e);
+			}
+		}
+		return next;
+	}
+
+	/*
+	 * Methods for undoing the most recent edit, and redoing the most recently
+	 * undone edit. Nothing happens if there is nothing to undo or redo.
+	 */
+	public synchronized ModelVersion undoEdit() {
+		EditOverlay edits = current.get().getEdits();
+		if (!edits.canUndo()) {
+			return current.get();
+		}
+		ModelVersion next = publishEdits(edits.undo());
+		if (journal != null) {
+			try {
+				journal.writeUndo();
+			} catch (IOException e) {
+				reportJournalError(e);
+			}
+		}
+		return next;
+	}
+
+	public synchronized ModelVersion redoEdit() {
+		EditOverlay edits = current.get().getEdits();
+		if (!edits.canRedo()) {
+			return current.get();
+		}
+		ModelVersion next = publishEdits(edits.redo());
+		if (journal != null) {
+			try {
+				journal.writeRedo();
+			} catch (IOException e) {
+				reportJournalError(e);
+			}
+		}
+		return next;
+	}
+
+	/*
+	 * Method for saving every edit made from now on to the given journal, and
+	 * replacing the current edits with the ones already saved in it. The
+	 * previous journal is closed.
+	 */
+	public synchronized ModelVersion setJournal(EditJournal journal) {
+		closeJournal();
+		this.journal = journal;
+		return publishEdits(journal.getOverlay());
+	}
+
+	/*
+	 * Method for closing the journal, after which edits are only kept in
+	 * memory until another journal is set
+	 */
+	public synchronized void closeJournal() {
+		if (journal != null) {
+			try {
+				journal.close();
+			} catch (IOException e) {
+				reportJournalError(e);
+			}
+			journal = null;
+		}
+	}
+
+	/*
+	 * Publishes a new version with the same counts as the current one, but
+	 * with different edits made on top
+	 */
+	private ModelVersion publishEdits(EditOverlay edits) {
+		while (true) {
+			ModelVersion previous = current.get();
+			NoteMatrix matrix = null;
+			ProbabilityMatrix model = null;
+			if (previous.getModel() != null) {
+				// The counts haven't changed, so the same matrix is used. A
+				// model loaded from a file has to be loaded into a matrix
+				// before the edits can be made to it.
+				matrix = previous.getMatrix();
+				Set<Long> changed = Collections.<Long> emptySet();
+				if (matrix == null) {
+					matrix = previous.copyMatrix();
+					changed = null;
+				}
+				model = compile(matrix, edits, previous, changed);
+			}
+
+			ModelVersion next = new ModelVersion(previous.getNumber() + 1, matrix, edits, model);
+			if (current.compareAndSet(previous, next)) {
+				return next;
+			}
+		}
+	}
+
+	/*
+	 * Builds the model scores are generated from: the counts of the given
+	 * matrix with the edits made on top. If the previous version's model was
+	 * compiled from a matrix that this one was copied from with copyOnWrite,
+	 * only the rows that changed since and the rows edited in either version
+	 * are compiled again, while the rest are copied from the previous model.
+	 * Otherwise the whole matrix is compiled.
+	 */
+	private static CompiledModel compile(NoteMatrix matrix, EditOverlay edits, ModelVersion previous,
+			Set<Long> changed) {
+		// The edits are made to a copy, so the counts are left as they are
+		NoteMatrix edited = matrix.copyOnWrite();
+		edits.applyTo(edited);
+
+		if (previous == null || changed == null || !(previous.getModel() instanceof CompiledModel)) {
+			return CompiledModel.compile(edited);
+		}
+		// Rows the previous edits changed are compiled again too, in case
+		// those edits have since been undone. Any of them that have since
+		// been removed from the matrix are already in changed.
+		Set<Long> rows = new HashSet<Long>(changed);
+		rows.addAll(edited.getOwnRows());
+		rows.addAll(matrix.findEditedRows(previous.getEdits().getChainKeys()));
+		return CompiledModel.recompile((CompiledModel) previous.getModel(), edited, rows);
+	}
+
+	/*
+	 * The edits are still used if the journal can't be written to, so
+	 * failures are only reported
+	 */
+	private void reportJournalError(IOException e) {
+		System.err.println("Could not save edit to " + journal.getFile() + ": " + e.getMessage());
+	}
+}
@@ -0,0 +1,99 @@
+package data;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * @author Benjamin Henshall
+ *
+ *         Class used to store one version of the note matrix published by a
+ *         ModelStore: the counts of every chain, the probabilities the user
+ *         has edited by hand, and the read-only model that scores are
+ *         generated from and the matrix table reads from, which is the counts
+ *         with the edits made on top. None of these are ever changed once the
+ *         version has been created, so any number of threads can use a
+ *         version without locking, and it stays exactly the same after a
+ *         newer version replaces it.
+ */
+public class ModelVersion {
+
+	// Number of the version. Each version published by a store is numbered
+	// one higher than the one it replaced.
+	private final long number;
+
+	// Counts the model was compiled from, without the edits. Null if the
+	// model was loaded from a file and hasn't been changed since, or if there
+	// isn't a matrix yet.
+	private final NoteMatrix matrix;
+
+	// Probabilities edited by hand
+	private final EditOverlay edits;
+
+	// Model used to generate scores: a CompiledModel of the matrix with the
+	// edits made to it, or a ModelFile. Null if there isn't a matrix yet.
+	private final ProbabilityMatrix model;
+
+	ModelVersion(long number, NoteMatrix matrix, EditOverlay edits, ProbabilityMatrix model) {
+		this.number = number;
+		this.matrix = matrix;
+		this.edits = edits;
+		this.model = model;
+	}
+
+	/*
+	 * Returns the number of the version
+	 */
+	public long getNumber() {
+		return number;
+	}
+
+	/*
+	 * Returns the model scores are generated from, or null if there isn't a
+	 * matrix yet
+	 */
+	public ProbabilityMatrix getModel() {
+		return model;
+	}
+
+	/*
+	 * Returns the probabilities edited by hand
+	 */
+	public EditOverlay getEdits() {
+		return edits;
+	}
+
+	/*
+	 * Returns the counts the model was compiled from, which must not be
+	 * changed, or null if the model was loaded from a file
+	 */
+	NoteMatrix getMatrix() {
+		return matrix;
+	}
+
+	/*
+	 * Returns every file counted in the model, mapped to the hash of the
+	 * contents that were counted (see NoteMatrix.getImports)
+	 */
+	public Map<String, String> getImports() {
+		if (matrix != null) {
+			return matrix.getImports();
+		}
+		if (model == null) {
+			return Collections.<String, String> emptyMap();
+		}
+		return ((ModelFile) model).getImportHashes();
+	}
+
+	/*
+	 * Method for fetching a copy of the counts, without the edits, that can
+	 * be changed without changing this version. Rows are shared with this
+	 * version until they are changed (see NoteMatrix.copyOnWrite). A model
+	 * loaded from a file is loaded into a new NoteMatrix instead.
+	 */
+	public NoteMatrix copyMatrix() {
+		if (matrix == null) {
+			return ((ModelFile) model).toNoteMatrix();
+		}
+		return matrix.copyOnWrite();
+	}
+}
@@ -1,75 +1,618 @@
 package data;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
 import jm.JMC;
 import jm.music.data.Note;
 import jm.music.data.Part;
 import jm.music.data.Phrase;
 import jm.music.data.Score;
-import jm.music.tools.Mod;
 
 /**
  * @author Benjamin Henshall
  * 
  *         Class used to store the matrix from reading in MIDI files. Contains
  *         methods for building, querying and organising the entire matrix.
+ *
+ *         The matrix has an order, which is the longest context (number of
+ *         previous pitches) it counts. Every context from 1 pitch up to the
+ *         order is counted, so scores can be generated from any order up to
+ *         the matrix's own. The chains of two pitches shown and edited in the
+ *         GUI are the contexts of order 2.
+ *
+ *         Notes following a context that never occurred are picked by backing
+ *         off to the longest shorter context that did occur, down to order 0,
+ *         which counts every note regardless of the notes before it. This is
+ *         done when the note is picked, so nothing is stored for contexts
+ *         that never occurred.
  */
-public class NoteMatrix implements JMC {
+public class NoteMatrix implements JMC, ProbabilityMatrix {
 
-	// 2D array of MatrixRows which represent a row in the matrix. Rows are
-	// stored in in the array position relative to their value. For example, if
-	// you wanted the probability details of the chain 60, 63, you would look in
-	// matrixRow[60][63].
-	private MatrixRow[][] matrixRow;
+	// Dynamic and rhythm given to notes generated for a chain or pitch that
+	// never occurred in the imported files.
+	static final int FALLBACK_DYNAMIC = 70;
+	static final double FALLBACK_RHYTHM = 0.25;
+
+	// Lowest and highest order a matrix can have, and the order used unless
+	// another is chosen. Each pitch of a context takes up 7 bits of its key,
+	// so 8 pitches is as many as fit into a long alongside the order.
+	public static final int MIN_ORDER = 1;
+	public static final int MAX_ORDER = 8;
+	public static final int DEFAULT_ORDER = 2;
+
+	// Bits used by each pitch of a context, and the bits of a long used to
+	// store the previous MAX_ORDER pitches
+	private static final int PITCH_BITS = 7;
+	private static final long HISTORY_MASK = (1L << (PITCH_BITS * MAX_ORDER)) - 1;
+
+	// Map of MatrixRows which represent a row in the matrix, keyed by the
+	// context of previous pitches they belong to (see contextKey). Only
+	// contexts that have actually occurred in the imported files are stored,
+	// so the memory used grows with the number of different contexts found
+	// rather than with the number of pitches to the power of the order. For
+	// example, if you wanted the probability details of the chain 60, 63, you
+	// would look in matrixRow.get(chainKey(60, 63)).
+	private HashMap<Long, MatrixRow> matrixRow;
+
+	// Longest context counted by this matrix
+	private final int order;
 
 	// Variable for how many pitches total found throughout all scores imported.
 	// Used to define array sizes.
 	private int numOfPitches;
 
+	// Number of times each pitch has been found in the scores added to the
+	// matrix. Used to keep numOfPitches correct as scores are added and
+	// removed.
+	private int[] pitchOccurrences;
+
+	// Keys of the rows whose counts have changed since the probabilities were
+	// last updated. Only these rows need their probabilities updated.
+	private HashSet<Long> changedRows;
+
+	// Keys of the rows that belong to this matrix, for a matrix made by
+	// copyOnWrite. Every other row is shared with the matrix it was copied
+	// from, and is copied before it is changed. Null if every row belongs to
+	// this matrix.
+	private HashSet<Long> ownRows;
+
+	// Every file counted in the matrix, in the order they were added, mapped
+	// to the hash of the contents that were counted (see TokenCache). Used to
+	// remove exactly the notes that were counted for a file, even if it has
+	// been changed or deleted since. A file that couldn't be read has a null
+	// hash, as nothing was counted for it.
+	private LinkedHashMap<String, String> imports;
+
+	// True if the map above is shared with the matrix this one was copied
+	// from by copyOnWrite, in which case it is copied before it is changed
+	private boolean importsShared;
+
+	public NoteMatrix() {
+		this(0);
+	}
+
 	public NoteMatrix(int high) {
+		this(high, DEFAULT_ORDER);
+	}
+
+	/*
+	 * Constructor for a matrix that counts every context of up to "order"
+	 * previous pitches. Throws an IllegalArgumentException if the order isn't
+	 * between MIN_ORDER and MAX_ORDER.
+	 */
+	public NoteMatrix(int high, int order) {
+		this(high, new int[128], order);
+	}
+
+	/*
+	 * Constructor used when loading a saved matrix, which already knows how
+	 * many times each pitch has been found
+	 */
+	NoteMatrix(int high, int[] occurrences, int order) {
+		checkOrder(order);
 		numOfPitches = high;
+		this.order = order;
+
+		// Rows are only created once a context is found, so the map starts
+		// empty
+		matrixRow = new HashMap<Long, MatrixRow>();
+
+		pitchOccurrences = occurrences;
+		changedRows = new HashSet<Long>();
+		imports = new LinkedHashMap<String, String>();
+	}
+
+	/*
+	 * Throws an IllegalArgumentException if the given order isn't between
+	 * MIN_ORDER and MAX_ORDER
+	 */
+	static void checkOrder(int order) {
+		if (order < MIN_ORDER || order > MAX_ORDER) {
+			throw new IllegalArgumentException("Order must be between " + MIN_ORDER + " and " + MAX_ORDER);
+		}
+	}
+
+	/*
+	 * Method for creating a copy of this matrix, including any probabilities
+	 * the user has edited, which can be changed without changing this one.
+	 * Used to build an updated matrix in the background while this one is
+	 * still in use.
+	 */
+	public NoteMatrix copy() {
+		NoteMatrix copy = new NoteMatrix(numOfPitches, pitchOccurrences.clone(), order);
+		for (Map.Entry<Long, MatrixRow> entry : matrixRow.entrySet()) {
+			copy.matrixRow.put(entry.getKey(), new MatrixRow(entry.getValue()));
+		}
+		copy.changedRows.addAll(changedRows);
+		copy.imports.putAll(imports);
+		return copy;
+	}
+
+	/*
+	 * Method for creating a copy of this matrix that shares its rows with
+	 * this one. A row is only copied the first time the copy changes it, so
+	 * making the copy and editing a few chains takes far less time and
+	 * memory than copy(). This matrix must not be changed afterwards, as the
+	 * changes would show up in the copy too.
+	 */
+	public NoteMatrix copyOnWrite() {
+		NoteMatrix copy = new NoteMatrix(numOfPitches, pitchOccurrences.clone(), order);
+		copy.matrixRow.putAll(matrixRow);
+		copy.changedRows.addAll(changedRows);
+		copy.ownRows = new HashSet<Long>();
+		copy.imports = imports;
+		copy.importsShared = true;
+		return copy;
+	}
+
+	/*
+	 * Returns the keys of every row changed, added or removed since this
+	 * matrix was made by copyOnWrite, or null if it wasn't made by
+	 * copyOnWrite. Used to compile only the rows that changed.
+	 */
+	Set<Long> getOwnRows() {
+		return ownRows;
+	}
+
+	/*
+	 * Getters for the rows of the matrix and the number of times each pitch
+	 * has been found. Used when saving the matrix.
+	 */
+	Map<Long, MatrixRow> getRows() {
+		return matrixRow;
+	}
+
+	int[] getPitchOccurrences() {
+		return pitchOccurrences;
+	}
+
+	/*
+	 * Returns every file counted in the matrix, mapped to the hash of the
+	 * contents that were counted, in the order they were added
+	 */
+	public Map<String, String> getImports() {
+		return Collections.unmodifiableMap(imports);
+	}
+
+	/*
+	 * Method for recording that a file was counted in the matrix. Used when
+	 * loading a saved matrix, whose counts already include the file.
+	 */
+	void restoreImport(String file, String hash) {
+		ownImports();
+		imports.put(file, hash);
+	}
+
+	/*
+	 * Copies the map of imported files if it is shared with another matrix,
+	 * so it can be changed
+	 */
+	private void ownImports() {
+		if (importsShared) {
+			imports = new LinkedHashMap<String, String>(imports);
+			importsShared = false;
+		}
+	}
+
+	/*
+	 * Method used when loading a saved matrix to add a row that has already
+	 * been filled
+	 */
+	void putRow(long key, MatrixRow row) {
+		matrixRow.put(key, row);
+	}
+
+	/*
+	 * Method used when loading a saved matrix whose rows were saved with the
+	 * user's edits made to them, to turn the rows edited through the given
+	 * chains back into just the counts
+	 */
+	void removeEdits(Set<Long> chainKeys) {
+		for (Long key : findEditedRows(chainKeys)) {
+			MatrixRow row = matrixRow.get(key);
+			if (row != null) {
+				MatrixRow counted = row.withoutEdits();
+				if (counted == null) {
+					matrixRow.remove(key);
+				} else {
+					matrixRow.put(key, counted);
+				}
+			}
+		}
+	}
+
+	/*
+	 * Returns the longest context counted by this matrix
+	 */
+	public int getOrder() {
+		return order;
+	}
 
-		// Defines the size of the matrixRow 2D array. Size is +1 due to 0 also
-		// being a valid pitch in jMusic.
-		matrixRow = new MatrixRow[numOfPitches + 1][numOfPitches + 1];
+	/*
+	 * Method for adding a pitch to the end of a history of previous pitches.
+	 * MIDI pitches range from 0 to 127, so each pitch fits into 7 bits and the
+	 * history is stored in a single long, with the most recent pitch in the
+	 * lowest bits. Only the last MAX_ORDER pitches are kept.
+	 */
+	public static long addToHistory(long history, int pitch) {
+		return ((history << PITCH_BITS) | (pitch & 0x7F)) & HISTORY_MASK;
+	}
 
-		// Cycles through the 2D array, defining each element as a new
-		// MatrixRow.
-		for (int i = 0; i < numOfPitches + 1; i++) {
-			for (int j = 0; j < numOfPitches + 1; j++) {
-				matrixRow[i][j] = new MatrixRow(numOfPitches);
+	/*
+	 * Method for replacing the most recent pitch in a history with another
+	 */
+	static long replaceLastPitch(long history, int pitch) {
+		return addToHistory(history >>> PITCH_BITS, pitch);
+	}
+
+	/*
+	 * Returns the most recent pitch in a history
+	 */
+	static int getLastPitch(long history) {
+		return (int) (history & 0x7F);
+	}
+
+	/*
+	 * Method for turning the last "order" pitches of a history into a key for
+	 * the matrixRow map. The order is stored above the pitches, so contexts of
+	 * different orders never share a key.
+	 */
+	static long contextKey(long history, int order) {
+		return ((long) order << (PITCH_BITS * MAX_ORDER)) | (history & ((1L << (PITCH_BITS * order)) - 1));
+	}
+
+	/*
+	 * Method for turning the two pitches of a chain into a history, and into
+	 * the key of its order 2 context
+	 */
+	static long chainHistory(int pitch1, int pitch2) {
+		return addToHistory(addToHistory(0, pitch1), pitch2);
+	}
+
+	static long chainKey(int pitch1, int pitch2) {
+		return contextKey(chainHistory(pitch1, pitch2), 2);
+	}
+
+	/*
+	 * Method for finding the row used to pick the note after the last "order"
+	 * pitches of a history. If that context never occurred, then we back off
+	 * to the context one pitch shorter, and so on down to order 0. Returns
+	 * null only if the matrix has no notes at all.
+	 */
+	private MatrixRow findRow(long history, int order) {
+		for (int contextOrder = order; contextOrder >= 0; contextOrder--) {
+			MatrixRow row = matrixRow.get(contextKey(history, contextOrder));
+			if (row != null) {
+				return row;
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * Method for fetching the row of a chain, creating it if the chain hasn't
+	 * been found before.
+	 */
+	private MatrixRow getOrCreateRow(int pitch1, int pitch2) {
+		return getOrCreateRow(chainKey(pitch1, pitch2));
+	}
+
+	/*
+	 * Method for fetching the row with the given key, creating it if the
+	 * context hasn't been found before.
+	 */
+	private MatrixRow getOrCreateRow(long key) {
+		MatrixRow row = getRowToChange(key);
+		if (row == null) {
+			row = new MatrixRow();
+			matrixRow.put(key, row);
+			if (ownRows != null) {
+				ownRows.add(key);
 			}
 		}
+		return row;
+	}
+
+	/*
+	 * Method for fetching the row with the given key so it can be changed, or
+	 * null if the context hasn't been found before. If the row is shared with
+	 * the matrix this one was copied from, then it is copied first so the
+	 * other matrix is left as it was.
+	 */
+	private MatrixRow getRowToChange(long key) {
+		MatrixRow row = matrixRow.get(key);
+		if (row != null && ownRows != null && ownRows.add(key)) {
+			row = new MatrixRow(row);
+			matrixRow.put(key, row);
+		}
+		return row;
+	}
+
+	/*
+	 * Method for working out which pitch to generate when there is nothing to
+	 * back off to, i.e. no files have been imported. We still want to keep the
+	 * program generating, so the note is one pitch above the previous note.
+	 * If we're at the max pitch, then we start again at pitch 0.
+	 */
+	static int getFallbackPitch(int prevNote, int numOfPitches) {
+		if (prevNote + 1 >= numOfPitches) {
+			return 0;
+		}
+		return prevNote + 1;
+	}
+
+	private int getFallbackPitch(int prevNote) {
+		return getFallbackPitch(prevNote, numOfPitches);
+	}
+
+	/*
+	 * Method for creating a note of average dynamic and rhythm. Used when
+	 * there is nothing to back off to.
+	 */
+	static Note createFallbackNote(int pitch) {
+		return createFallbackNote(pitch, Double.POSITIVE_INFINITY);
+	}
+
+	/*
+	 * Does the same as above, but the note is no longer than maxRhythm
+	 */
+	static Note createFallbackNote(int pitch, double maxRhythm) {
+		return new Note(pitch, Math.min(FALLBACK_RHYTHM, maxRhythm), FALLBACK_DYNAMIC);
+	}
+
+	/*
+	 * Returns the probability of a note when there is nothing to back off to,
+	 * which is 1 for the rising pitch fallback and 0 for every other pitch
+	 */
+	static double getFallbackProbability(int prevNote, int note, int numOfPitches) {
+		int fallbackPitch = getFallbackPitch(prevNote, numOfPitches);
+		if (note == fallbackPitch && fallbackPitch < numOfPitches) {
+			return 1.0;
+		}
+		return 0.0;
+	}
+
+	/*
+	 * Method for creating a vector containing a row of probabilities when
+	 * there is nothing to back off to, where the only note it can produce is
+	 * the rising pitch fallback.
+	 */
+	static Vector<Double> getFallbackProbabilityArray(int prevNote, int numOfPitches) {
+		Vector<Double> prob = new Vector<Double>(numOfPitches);
+		for (int i = 0; i < numOfPitches; i++) {
+			prob.add(0.0);
+		}
+		int fallbackPitch = getFallbackPitch(prevNote, numOfPitches);
+		if (fallbackPitch < numOfPitches) {
+			prob.set(fallbackPitch, 1.0);
+		}
+		return prob;
 	}
 
 	/*
 	 * Method for adding songs to the matrix, as the constructor only creates
-	 * the objects but does not fill them with data/probabilities.
+	 * the objects but does not fill them with data/probabilities. Songs can be
+	 * added at any time, after which updateProbabilities must be called.
 	 */
 	public void addToMatrix(Score s) {
-		// Quick check to make sure the MIDI file isn't just an empty file
-		if (s.getPartArray().length > 0) {
-			// Merges all all of the scores parts into a single phrase array.
-			Phrase[] phrases = mergePartsReturnPhrases(s.getPartArray());
-
-			// Nested loop that repeats for every phrase in phrases...
-			for (int i = 0; i < phrases.length; i++) {
-
-				// Gets the note array of the phrase
-				Note[] noteArray = phrases[i].getNoteArray();
-
-				// Loop that repeats for every note from note 2 onwards and adds
-				// to the probability of that chain occurring
-				for (int k = 2; k < noteArray.length; k++) {
-					// Quick check to make sure the note is a valid pitch
-					// (Protection against possibility of corrupt MIDI files)
-					if (noteArray[k].getPitch() > 0 && noteArray[k - 2].getPitch() > 0
-							&& noteArray[k - 1].getPitch() > 0) {
-						// Adds to the probability of the note k occurring after
-						// note k-2, note k-1
-						matrixRow[noteArray[k - 2].getPitch()][noteArray[k - 1].getPitch()]
-								.addToProbabilities(noteArray[k]);
+		countScore(s, 1);
+	}
+
+	/*
+	 * Method for removing a song that was previously added to the matrix. The
+	 * score must contain the same notes as when it was added, e.g. by reading
+	 * the same MIDI file again. Only the chains found in this song are
+	 * changed, after which updateProbabilities must be called.
+	 */
+	public void removeFromMatrix(Score s) {
+		countScore(s, -1);
+	}
+
+	/*
+	 * Method for adding the counts of another matrix to this one, for example
+	 * one that was filled with newly imported songs on another thread. Only
+	 * the chains found in the other matrix are changed, after which
+	 * updateProbabilities must be called.
+	 */
+	public void addToMatrix(NoteMatrix other) {
+		addMatrix(other, 1);
+	}
+
+	/*
+	 * Method for removing the counts of another matrix from this one. Every
+	 * song counted in the other matrix must previously have been added to this
+	 * one. Only the chains found in the other matrix are changed, after which
+	 * updateProbabilities must be called. Throws an IllegalArgumentException,
+	 * without changing anything, if the other matrix records a file that was
+	 * never counted in this one (see MatrixTrainer.countImported).
+	 */
+	public void removeFromMatrix(NoteMatrix other) {
+		addMatrix(other, -1);
+	}
+
+	/*
+	 * Method that adds (amount = 1) or removes (amount = -1) the counts of
+	 * every chain and pitch in another matrix to the counts of this matrix.
+	 */
+	private void addMatrix(NoteMatrix other, int amount) {
+		// Rows of a different order would leave some contexts uncounted
+		if (other.order != order) {
+			throw new IllegalArgumentException(
+					"Can't combine a matrix of order " + other.order + " with one of order " + order);
+		}
+
+		// Files are added to or removed from the list of imported files along
+		// with their counts
+		if (amount < 0) {
+			for (String file : other.imports.keySet()) {
+				if (!imports.containsKey(file)) {
+					throw new IllegalArgumentException(file + " was never added to the matrix");
+				}
+			}
+		}
+		if (!other.imports.isEmpty()) {
+			ownImports();
+			for (Map.Entry<String, String> entry : other.imports.entrySet()) {
+				if (amount > 0) {
+					imports.put(entry.getKey(), entry.getValue());
+				} else {
+					imports.remove(entry.getKey());
+				}
+			}
+		}
+
+		for (Map.Entry<Long, MatrixRow> entry : other.matrixRow.entrySet()) {
+			MatrixRow row = getOrCreateRow(entry.getKey());
+			row.addRow(entry.getValue(), amount);
+			changedRows.add(entry.getKey());
+		}
+
+		for (int i = 0; i < other.pitchOccurrences.length; i++) {
+			if (other.pitchOccurrences[i] != 0) {
+				countPitch(i, other.pitchOccurrences[i] * amount);
+			}
+		}
+	}
+
+	/*
+	 * Method for adding the notes of a song that have already been read into
+	 * tokens, e.g. by a TokenCache. Works exactly like addToMatrix(Score),
+	 * after which updateProbabilities must be called.
+	 */
+	public void addToMatrix(NoteTokens tokens) {
+		countTokens(tokens, 1);
+	}
+
+	/*
+	 * Does the same as above for the tokens of a file, and records that the
+	 * file was counted along with the hash of the contents that were counted,
+	 * so it can be removed again later (see MatrixTrainer.countImported)
+	 */
+	public void addToMatrix(String file, String hash, NoteTokens tokens) {
+		countTokens(tokens, 1);
+		ownImports();
+		imports.put(file, hash);
+	}
+
+	/*
+	 * Method for removing the notes of a song that were previously added,
+	 * using tokens read from the same file. Works exactly like
+	 * removeFromMatrix(Score), after which updateProbabilities must be called.
+	 */
+	public void removeFromMatrix(NoteTokens tokens) {
+		countTokens(tokens, -1);
+	}
+
+	/*
+	 * Method that adds (amount = 1) or removes (amount = -1) every chain found
+	 * in a score to the counts of the matrix.
+	 */
+	private void countScore(Score s, int amount) {
+		countTokens(NoteTokens.fromScore(s), amount);
+	}
+
+	/*
+	 * Method that adds (amount = 1) or removes (amount = -1) every context
+	 * found in a song's tokens to the counts of the matrix.
+	 */
+	private void countTokens(NoteTokens tokens, int amount) {
+		// Loop that repeats for every phrase in the song...
+		for (int i = 0; i < tokens.getPhraseCount(); i++) {
+			int start = tokens.getPhraseStart(i);
+			int end = tokens.getPhraseEnd(i);
+
+			// Keeps track of which pitches have been found
+			for (int k = start; k < end; k++) {
+				if (tokens.getPitch(k) >= 0) {
+					countPitch(tokens.getPitch(k), amount);
+				}
+			}
+
+			// The pitches before the current note, and how many of them can be
+			// used as a context. Contexts never cross a rest or an invalid
+			// pitch.
+			long history = 0;
+			int valid = 0;
+
+			// Loop that repeats for every note and adds to the probability of
+			// it following each of the contexts before it
+			for (int k = start; k < end; k++) {
+				int pitch = tokens.getPitch(k);
+				// Quick check to make sure the note is a valid pitch
+				// (Protection against possibility of corrupt MIDI files)
+				if (pitch <= 0) {
+					valid = 0;
+					continue;
+				}
+
+				// Adds to (or removes from) the probability of note k occurring
+				// after the previous 0, 1, 2, ... up to "order" notes
+				for (int contextOrder = 0; contextOrder <= valid; contextOrder++) {
+					long key = contextKey(history, contextOrder);
+					if (amount > 0) {
+						getOrCreateRow(key).addToProbabilities(pitch, tokens.getRhythm(k), tokens.getDynamic(k));
+					} else {
+						getRowToChange(key).removeFromProbabilities(pitch, tokens.getRhythm(k),
+								tokens.getDynamic(k));
 					}
+					changedRows.add(key);
+				}
+
+				history = addToHistory(history, pitch);
+				valid = Math.min(valid + 1, order);
+			}
+		}
+	}
+
+	/*
+	 * Method for adding to (or removing from) the number of times a pitch has
+	 * been found, and updating numOfPitches to match the highest pitch that
+	 * has been found.
+	 */
+	private void countPitch(int pitch, int amount) {
+		// Grows the array if we find a pitch outside of the normal MIDI range
+		if (pitch >= pitchOccurrences.length) {
+			pitchOccurrences = Arrays.copyOf(pitchOccurrences, pitch + 1);
+		}
+		pitchOccurrences[pitch] += amount;
+
+		if (amount > 0 && pitch > numOfPitches) {
+			numOfPitches = pitch;
+		} else if (amount < 0 && pitch == numOfPitches && pitchOccurrences[pitch] == 0) {
+			// The highest pitch has gone, so find the next highest one
+			numOfPitches = 0;
+			for (int i = pitch - 1; i >= 0; i--) {
+				if (pitchOccurrences[i] > 0) {
+					numOfPitches = i;
+					break;
 				}
 			}
 		}
@@ -81,39 +624,56 @@ public class NoteMatrix implements JMC {
 	 * hand, so this stage is necessary.
 	 */
 	public Phrase[] mergePartsReturnPhrases(Part[] parts) {
-		// Cycles through the array of parts and merges them all into parts[0]
-		// using a jMusic function
-		for (int i = 1; i < parts.length; i++) {
-			Mod.merge(parts[0], parts[i]);
-		}
-
-		// Returns the array of phrases from the merged parts[0]
-		Phrase[] phr = parts[0].getPhraseArray();
+		return NoteTokens.mergePartsReturnPhrases(parts);
+	}
 
-		return phr;
+	/*
+	 * Wrapper method for generating the next note when giving a history of
+	 * previous pitches (see addToHistory), the number of those pitches to use
+	 * and a source of random numbers
+	 */
+	public Note getNextNote(long history, int order, RandomSource random) {
+		return getNextNote(history, order, Double.POSITIVE_INFINITY, random);
 	}
 
 	/*
-	 * Wrapper method for generating the next note when giving the previous two
-	 * pitches
+	 * Does the same as above, but the note's rhythm value is no longer than
+	 * maxRhythm
 	 */
-	public Note getNextNote(int pitch1, int pitch2) {
-		return matrixRow[pitch1][pitch2].getNextNote();
+	public Note getNextNote(long history, int order, double maxRhythm, RandomSource random) {
+		MatrixRow row = findRow(history, order);
+
+		// If there are no notes to pick from at all, then use the rising pitch
+		// fallback
+		if (row == null) {
+			return createFallbackNote(getFallbackPitch(getLastPitch(history)), maxRhythm);
+		}
+		return row.getNextNote(maxRhythm, random);
 	}
 
 	/*
 	 * Method for updating the probabilities of the matrix. Before this is
-	 * called, all probabilities are 0 but counts of occurrences are correct.
+	 * called, the probabilities of any chains found in songs added or removed
+	 * since the last update are out of date, but counts of occurrences are
+	 * correct. Only those rows are updated, so the time taken depends on the
+	 * songs that changed rather than the size of the whole matrix.
 	 */
 	public void updateProbabilities() {
 
-		// Loops through all objects in the matrix row 2D array
-		for (int i = 0; i < numOfPitches + 1; i++) {
-			for (int j = 0; j < numOfPitches + 1; j++) {
-				// And updates the probability for the current iteration
-				matrixRow[i][j].updateProbability(j);
+		// Loops through the rows that have changed and updates their
+		// probability
+		for (Long key : changedRows) {
+			MatrixRow row = getRowToChange(key);
+
+			// If every note of the chain has been removed, then the row is no
+			// longer needed
+			if (row.isEmpty()) {
+				matrixRow.remove(key);
+			} else {
+				row.updateProbability();
 			}
 		}
+		changedRows.clear();
 	}
 
 	/*
@@ -128,20 +688,109 @@ public class NoteMatrix implements JMC {
 	 * Method for returning a vector filled a row of probabilities for given
 	 * chain (note1, note2)
 	 */
-	public Vector getProbabilityArray(int note1, int note2) {
-		Vector prob = new Vector();
+	public Vector<Double> getProbabilityArray(int note1, int note2) {
+		// If the chain never occurred, then these are the probabilities of the
+		// shorter context it backs off to
+		MatrixRow row = findRow(chainHistory(note1, note2), 2);
+		if (row == null) {
+			return getFallbackProbabilityArray(note2, numOfPitches);
+		}
 
-		prob = matrixRow[note1][note2].getProbabilityArray();
+		return row.getProbabilityArray(numOfPitches);
+	}
 
-		return prob;
+	/*
+	 * Returns the probability of note3 following the chain note1, note2,
+	 * without building the rest of the row
+	 */
+	public double getProbability(int note1, int note2, int note3) {
+		MatrixRow row = findRow(chainHistory(note1, note2), 2);
+		if (row == null) {
+			return getFallbackProbability(note2, note3, numOfPitches);
+		}
+		return row.getProbability(note3);
 	}
 
 	/*
 	 * Method for manually editing the probability of note3 resulting from the
-	 * chain note1, note2.
+	 * chain note1, note2. The matrix table only shows chains of two notes,
+	 * but scores may be generated from longer contexts, so every longer
+	 * context ending with note1, note2 is edited as well. Otherwise the edit
+	 * would only be used when one of those contexts backs off to the chain.
 	 */
 	public void setNewProbability(int note1, int note2, int note3, double newProb) {
-		matrixRow[note1][note2].setNewProbability(note3, newProb);
+		long chain = chainKey(note1, note2);
+		List<Long> longer = findLongerContexts(Collections.singleton(chain)).get(chain);
+		setNewProbability(note1, note2, note3, newProb, longer);
+	}
+
+	/*
+	 * Does the same as above, but is given the keys of the longer contexts
+	 * ending with note1, note2 (or null if there aren't any), so that making
+	 * many edits only needs to look through the rows once (see
+	 * findLongerContexts).
+	 */
+	void setNewProbability(int note1, int note2, int note3, double newProb, List<Long> longer) {
+		// If the chain never occurred, then it needs to be stored before it can
+		// be edited. It starts with the notes of the context it backs off to,
+		// exactly as they would be generated, or the rising pitch fallback if
+		// there is nothing to back off to.
+		if (!matrixRow.containsKey(chainKey(note1, note2))) {
+			MatrixRow backoff = findRow(chainHistory(note1, note2), 1);
+			if (backoff != null) {
+				getOrCreateRow(note1, note2).copyProbabilities(backoff);
+			} else {
+				getOrCreateRow(note1, note2).setNewProbability(getFallbackPitch(note2), 1);
+			}
+		}
+		getRowToChange(chainKey(note1, note2)).setNewProbability(note3, newProb);
+
+		if (longer != null) {
+			for (Long key : longer) {
+				getRowToChange(key).setNewProbability(note3, newProb);
+			}
+		}
+	}
+
+	/*
+	 * Method for finding every context longer than two notes that ends with
+	 * one of the given chains (see chainKey). Returns the keys of those
+	 * contexts, grouped by the key of the chain they end with. Takes one pass
+	 * over the rows however many chains are given.
+	 */
+	Map<Long, List<Long>> findLongerContexts(Set<Long> chainKeys) {
+		HashMap<Long, List<Long>> longer = new HashMap<Long, List<Long>>();
+		if (chainKeys.isEmpty() || order <= 2) {
+			return longer;
+		}
+
+		for (Long key : matrixRow.keySet()) {
+			// The order of a context is stored above its pitches
+			if ((key >>> (PITCH_BITS * MAX_ORDER)) > 2) {
+				Long chain = contextKey(key, 2);
+				if (chainKeys.contains(chain)) {
+					List<Long> keys = longer.get(chain);
+					if (keys == null) {
+						keys = new ArrayList<Long>();
+						longer.put(chain, keys);
+					}
+					keys.add(key);
+				}
+			}
+		}
+		return longer;
+	}
+
+	/*
+	 * Returns the keys of every row an edit of the given chains changes: the
+	 * chains themselves and every longer context ending with one of them
+	 */
+	Set<Long> findEditedRows(Set<Long> chainKeys) {
+		HashSet<Long> rows = new HashSet<Long>(chainKeys);
+		for (List<Long> keys : findLongerContexts(chainKeys).values()) {
+			rows.addAll(keys);
+		}
+		return rows;
 	}
 
 	/*
@@ -150,7 +799,10 @@ public class NoteMatrix implements JMC {
 	 * times in the files we imported, then this method will return 300.
 	 */
 	public int getNumOfNotesForChain(int note1, int note2) {
-		int total = matrixRow[note1][note2].getTotalCount();
-		return total;
+		MatrixRow row = matrixRow.get(chainKey(note1, note2));
+		if (row == null) {
+			return 0;
+		}
+		return row.getTotalCount();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,203 @@
+package data;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import jm.music.data.Note;
+import jm.music.data.Part;
+import jm.music.data.Phrase;
+import jm.music.data.Score;
+
+/**
+ * @author Benjamin Henshall
+ *
+ *         Class used to store the notes of a MIDI file in the form the matrix
+ *         is trained from: the pitch, rhythm value and dynamic of every note,
+ *         phrase by phrase, after all of the score's parts have been merged.
+ *         Notes are stored in plain arrays rather than jMusic objects, so a
+ *         file's tokens are small enough to keep in a TokenCache and can be
+ *         counted into the matrix without reading the file again.
+ *
+ *         Tokens never change once created.
+ */
+public class NoteTokens {
+
+	// Tokens of a file with no notes in it
+	public static final NoteTokens EMPTY = new NoteTokens(new int[] { 0 }, new int[0], new double[0], new int[0]);
+
+	// Phrase p is made up of the notes from phraseStart[p] up to (but not
+	// including) phraseStart[p + 1]
+	private final int[] phraseStart;
+
+	// Parallel arrays storing the pitch, rhythm value and dynamic of every
+	// note, with the notes of each phrase stored one after another
+	private final int[] pitches;
+	private final double[] rhythms;
+	private final int[] dynamics;
+
+	/*
+	 * Creates tokens from arrays that have already been filled, e.g. by
+	 * MidiTokenReader. The arrays are used as they are rather than copied.
+	 */
+	NoteTokens(int[] phraseStart, int[] pitches, double[] rhythms, int[] dynamics) {
+		this.phraseStart = phraseStart;
+		this.pitches = pitches;
+		this.rhythms = rhythms;
+		this.dynamics = dynamics;
+	}
+
+	/*
+	 * Method for creating the tokens of a score. The score isn't changed.
+	 */
+	public static NoteTokens fromScore(Score s) {
+		// Quick check to make sure the MIDI file isn't just an empty file
+		if (s.getPartArray().length == 0) {
+			return EMPTY;
+		}
+
+		Phrase[] phrases = mergePartsReturnPhrases(s.getPartArray());
+
+		int[] phraseStart = new int[phrases.length + 1];
+		for (int i = 0; i < phrases.length; i++) {
+			phraseStart[i + 1] = phraseStart[i] + phrases[i].size();
+		}
+
+		int noteCount = phraseStart[phrases.length];
+		int[] pitches = new int[noteCount];
+		double[] rhythms = new double[noteCount];
+		int[] dynamics = new int[noteCount];
+		for (int i = 0; i < phrases.length; i++) {
+			Note[] noteArray = phrases[i].getNoteArray();
+			for (int k = 0; k < noteArray.length; k++) {
+				int index = phraseStart[i] + k;
+				pitches[index] = noteArray[k].getPitch();
+				rhythms[index] = noteArray[k].getRhythmValue();
+				dynamics[index] = noteArray[k].getDynamic();
+			}
+		}
+		return new NoteTokens(phraseStart, pitches, rhythms, dynamics);
+	}
+
+	/*
+	 * Method that merges all parts of a song together and returns an array of
+	 * phrases. Most MIDI files are in separate parts, such as right hand/left
+	 * hand, so this stage is necessary. The phrases are returned in the same
+	 * order jMusic's Mod.merge would put them in (every phrase of the first
+	 * part, then every phrase of the second and so on), but the parts are
+	 * left unchanged.
+	 *
+	 * Chains are only counted within a phrase, so the order of the phrases
+	 * makes no difference to the matrix and they don't need sorting by time.
+	 */
+	public static Phrase[] mergePartsReturnPhrases(Part[] parts) {
+		// Works out how many phrases there are altogether so they can be
+		// copied into a single array
+		int total = 0;
+		for (int i = 0; i < parts.length; i++) {
+			total += parts[i].size();
+		}
+
+		Phrase[] phrases = new Phrase[total];
+		int next = 0;
+		for (int i = 0; i < parts.length; i++) {
+			Phrase[] partPhrases = parts[i].getPhraseArray();
+			System.arraycopy(partPhrases, 0, phrases, next, partPhrases.length);
+			next += partPhrases.length;
+		}
+		return phrases;
+	}
+
+	/*
+	 * Returns the number of phrases
+	 */
+	public int getPhraseCount() {
+		return phraseStart.length - 1;
+	}
+
+	/*
+	 * Returns the index of the first note of the given phrase
+	 */
+	public int getPhraseStart(int phrase) {
+		return phraseStart[phrase];
+	}
+
+	/*
+	 * Returns the index after the last note of the given phrase
+	 */
+	public int getPhraseEnd(int phrase) {
+		return phraseStart[phrase + 1];
+	}
+
+	/*
+	 * Returns the total number of notes in every phrase
+	 */
+	public int getNoteCount() {
+		return pitches.length;
+	}
+
+	/*
+	 * Getters for the pitch, rhythm value and dynamic of note i
+	 */
+	public int getPitch(int index) {
+		return pitches[index];
+	}
+
+	public double getRhythm(int index) {
+		return rhythms[index];
+	}
+
+	public int getDynamic(int index) {
+		return dynamics[index];
+	}
+
+	/*
+	 * Method for writing the tokens to a stream, so they can be read again by
+	 * read
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(getPhraseCount());
+		out.writeInt(pitches.length);
+		for (int i = 1; i < phraseStart.length; i++) {
+			out.writeInt(phraseStart[i]);
+		}
+		for (int i = 0; i < pitches.length; i++) {
+			out.writeInt(pitches[i]);
+			out.writeDouble(rhythms[i]);
+			out.writeInt(dynamics[i]);
+		}
+	}
+
+	/*
+	 * Method for reading tokens that were written by write. Throws an
+	 * IOException if the data doesn't make sense.
+	 */
+	public static NoteTokens read(DataInputStream in) throws IOException {
+		int phraseCount = in.readInt();
+		int noteCount = in.readInt();
+		if (phraseCount < 0 || noteCount < 0) {
+			throw new IOException("Invalid token counts");
+		}
+
+		int[] phraseStart = new int[phraseCount + 1];
+		for (int i = 1; i <= phraseCount; i++) {
+			phraseStart[i] = in.readInt();
+			if (phraseStart[i] < phraseStart[i - 1] || phraseStart[i] > noteCount) {
+				throw new IOException("Invalid phrase start");
+			}
+		}
+		if (phraseStart[phraseCount] != noteCount) {
+			throw new IOException("Phrases don't match the number of notes");
+		}
+
+		int[] pitches = new int[noteCount];
+		double[] rhythms = new double[noteCount];
+		int[] dynamics = new int[noteCount];
+		for (int i = 0; i < noteCount; i++) {
+			pitches[i] = in.readInt();
+			rhythms[i] = in.readDouble();
+			dynamics[i] = in.readInt();
+		}
+		return new NoteTokens(phraseStart, pitches, rhythms, dynamics);
+	}
+}
@@ -0,0 +1,56 @@
+package data;
+
+import java.util.Vector;
+import jm.music.data.Note;
+
+/**
+ * @author Benjamin Henshall
+ *
+ *         Interface for anything that can be used to generate notes from
+ *         contexts of previous pitches. Implemented by NoteMatrix, which is
+ *         built from imported files and can be edited, and by ModelFile, which
+ *         reads a saved matrix straight from disk. The chains used by the GUI
+ *         are contexts of two pitches.
+ */
+public interface ProbabilityMatrix {
+
+	/*
+	 * Generates the next note to follow the last "order" pitches of the given
+	 * history (see NoteMatrix.addToHistory), using the given source of random
+	 * numbers. The order can't be higher than getOrder.
+	 */
+	public Note getNextNote(long history, int order, RandomSource random);
+
+	/*
+	 * Does the same as above, but the note's rhythm value is no longer than
+	 * maxRhythm. The rhythm value is picked from only those found for the
+	 * note's pitch that fit, or is maxRhythm if none of them do.
+	 */
+	public Note getNextNote(long history, int order, double maxRhythm, RandomSource random);
+
+	/*
+	 * Returns the longest context of previous pitches the matrix has counted
+	 */
+	public int getOrder();
+
+	/*
+	 * Returns the total number of pitches found in the imported files
+	 */
+	public int getNumOfPitches();
+
+	/*
+	 * Returns a vector containing the probability of every pitch following the
+	 * chain note1, note2
+	 */
+	public Vector<Double> getProbabilityArray(int note1, int note2);
+
+	/*
+	 * Returns the probability of note3 following the chain note1, note2
+	 */
+	public double getProbability(int note1, int note2, int note3);
+
+	/*
+	 * Returns the number of times the chain note1, note2 has occurred
+	 */
+	public int getNumOfNotesForChain(int note1, int note2);
+}
@@ -0,0 +1,22 @@
+package data;
+
+/**
+ * @author Benjamin Henshall
+ *
+ *         Interface for anything that can supply the random numbers used when
+ *         generating. Generation is given a RandomSource rather than calling
+ *         Math.random, so the same seed can be used to produce exactly the
+ *         same score again, and threads don't have to share one generator.
+ */
+public interface RandomSource {
+
+	/*
+	 * Returns a random number between 0 (inclusive) and 1 (exclusive)
+	 */
+	public double nextDouble();
+
+	/*
+	 * Returns a random number between 0 (inclusive) and bound (exclusive)
+	 */
+	public int nextInt(int bound);
+}
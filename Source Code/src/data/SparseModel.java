@@ -0,0 +1,410 @@
+package data;
+
+import java.util.Vector;
+import jm.music.data.Note;
+
+/**
+ * @author Benjamin Henshall
+ *
+ *         Class used to generate from a matrix stored in compressed sparse row
+ *         form: a handful of flat sections of numbers, with the successors of
+ *         every row stored one after another and the rhythm values and
+ *         dynamics of every successor stored one after another. CompiledModel
+ *         keeps the sections in arrays and ModelFile reads them straight from
+ *         a mapped file, but both hold exactly the same sections, so
+ *         everything that reads them is written once here. Each of them only
+ *         has to say how a single entry of a section is read.
+ *
+ *         Each pitch, rhythm value and dynamic is picked with the columns of
+ *         an alias table stored alongside its weights (see AliasTable), so a
+ *         note is picked in constant time however many successors there are.
+ *         The columns are built from exactly the same weights as a MatrixRow
+ *         builds its tables from, and the same random numbers are used, so a
+ *         NoteMatrix, a CompiledModel of it and the same model saved and
+ *         opened again all generate exactly the same notes.
+ *
+ *         The sections holding ints are, in the order they are saved:
+ *
+ *         PITCH_OCCURRENCES - number of times each pitch was found
+ *         ROW_TOTALS - number of times each context occurred
+ *         ROW_START - row r owns the successors from ROW_START[r] up to (but
+ *         not including) ROW_START[r + 1]
+ *         SUCCESSOR_PITCH, SUCCESSOR_COUNT - each pitch following a context,
+ *         in ascending order, and how many times it followed it
+ *         SUCCESSOR_ALIAS - alias of each successor's column in its row's
+ *         alias table, relative to the row's first successor
+ *         RHYTHM_START, DYNAMIC_START - ranges of the rhythm values and
+ *         dynamics found for each successor, in the same way as ROW_START
+ *         RHYTHM_COUNT, RHYTHM_CUMULATIVE, RHYTHM_ALIAS - number of times each
+ *         rhythm value occurred, the running total of those counts within its
+ *         range, and its alias
+ *         DYNAMIC_VALUE, DYNAMIC_COUNT, DYNAMIC_ALIAS - each dynamic, the
+ *         number of times it occurred and its alias
+ *
+ *         followed by the key of every row (see NoteMatrix.contextKey), in
+ *         ascending order so rows can be found with a binary search, and then
+ *         the sections holding doubles:
+ *
+ *         SUCCESSOR_PROBABILITY - probability of each successor, including
+ *         any edits made by the user
+ *         SUCCESSOR_CUMULATIVE - running total of the probabilities within
+ *         each row, used to tell whether a row has anything to pick
+ *         SUCCESSOR_KEEP, RHYTHM_KEEP, DYNAMIC_KEEP - chance of keeping each
+ *         column of an alias table rather than using its alias
+ *         RHYTHM_VALUE - the rhythm value of each rhythm count
+ */
+abstract class SparseModel implements ProbabilityMatrix {
+
+	// Sections holding ints
+	static final int PITCH_OCCURRENCES = 0;
+	static final int ROW_TOTALS = 1;
+	static final int ROW_START = 2;
+	static final int SUCCESSOR_PITCH = 3;
+	static final int SUCCESSOR_COUNT = 4;
+	static final int SUCCESSOR_ALIAS = 5;
+	static final int RHYTHM_START = 6;
+	static final int DYNAMIC_START = 7;
+	static final int RHYTHM_COUNT = 8;
+	static final int RHYTHM_CUMULATIVE = 9;
+	static final int RHYTHM_ALIAS = 10;
+	static final int DYNAMIC_VALUE = 11;
+	static final int DYNAMIC_COUNT = 12;
+	static final int DYNAMIC_ALIAS = 13;
+	static final int INT_SECTIONS = 14;
+
+	// Sections holding doubles
+	static final int SUCCESSOR_PROBABILITY = 0;
+	static final int SUCCESSOR_CUMULATIVE = 1;
+	static final int SUCCESSOR_KEEP = 2;
+	static final int RHYTHM_VALUE = 3;
+	static final int RHYTHM_KEEP = 4;
+	static final int DYNAMIC_KEEP = 5;
+	static final int DOUBLE_SECTIONS = 6;
+
+	// Longest context counted, and the total number of pitches found
+	private final int order;
+	private final int numOfPitches;
+
+	SparseModel(int order, int numOfPitches) {
+		this.order = order;
+		this.numOfPitches = numOfPitches;
+	}
+
+	/*
+	 * Returns the length of each section holding ints, for a model with the
+	 * given number of entries in each kind of section
+	 */
+	static long[] getIntSectionLengths(int occurrences, int rows, int successors, int rhythms, int dynamics) {
+		return new long[] { occurrences, rows, rows + 1L, successors, successors, successors, successors + 1L,
+				successors + 1L, rhythms, rhythms, rhythms, dynamics, dynamics, dynamics };
+	}
+
+	/*
+	 * Returns the length of each section holding doubles
+	 */
+	static long[] getDoubleSectionLengths(int successors, int rhythms, int dynamics) {
+		return new long[] { successors, successors, successors, rhythms, rhythms, dynamics };
+	}
+
+	/*
+	 * Getters for entry i of a section, and the key and number of rows
+	 */
+	abstract int getInt(int section, int index);
+
+	abstract double getDouble(int section, int index);
+
+	abstract long getRowKey(int row);
+
+	abstract int getRowCount();
+
+	/*
+	 * Returns the position of the row with the given key, or -1 if the
+	 * context was never found
+	 */
+	private int findRow(long key) {
+		int low = 0;
+		int high = getRowCount() - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			long middleKey = getRowKey(middle);
+			if (middleKey < key) {
+				low = middle + 1;
+			} else if (middleKey > key) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * Returns the position of the row used to pick the note after the last
+	 * "order" pitches of a history, backing off in the same way as NoteMatrix,
+	 * or -1 if there is nothing to back off to
+	 */
+	private int findRow(long history, int order) {
+		for (int contextOrder = order; contextOrder >= 0; contextOrder--) {
+			int row = findRow(NoteMatrix.contextKey(history, contextOrder));
+			if (row >= 0) {
+				return row;
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * Returns the position of the row for the chain pitch1, pitch2, or -1 if
+	 * the chain was never found
+	 */
+	private int findRow(int pitch1, int pitch2) {
+		if (pitch1 < 0 || pitch2 < 0 || pitch1 > 127 || pitch2 > 127) {
+			return -1;
+		}
+		return findRow(NoteMatrix.chainKey(pitch1, pitch2));
+	}
+
+	/*
+	 * Returns the position of the row used to pick the note after the chain
+	 * pitch1, pitch2, backing off to shorter contexts if the chain was never
+	 * found, or -1 if there is nothing to back off to
+	 */
+	private int findBackoffRow(int pitch1, int pitch2) {
+		if (pitch1 < 0 || pitch2 < 0 || pitch1 > 127 || pitch2 > 127) {
+			return -1;
+		}
+		return findRow(NoteMatrix.chainHistory(pitch1, pitch2), 2);
+	}
+
+	/*
+	 * Picks one of the "count" columns starting at "from" of the alias table
+	 * held in the given sections, using a random number between 0 and 1, in
+	 * the same way as AliasTable.sample
+	 */
+	private int sample(int keepSection, int aliasSection, int from, int count, double randomNumber) {
+		double scaled = randomNumber * count;
+		int column = (int) scaled;
+
+		// Protects against a random number of exactly 1
+		if (column >= count) {
+			column = count - 1;
+		}
+
+		if (scaled - column < getDouble(keepSection, from + column)) {
+			return from + column;
+		}
+		return from + getInt(aliasSection, from + column);
+	}
+
+	/*
+	 * Method for generating the next note to follow the last "order" pitches
+	 * of a history. Works the same way as NoteMatrix.
+	 */
+	@Override
+	public Note getNextNote(long history, int order, RandomSource random) {
+		return getNextNote(history, order, Double.POSITIVE_INFINITY, random);
+	}
+
+	/*
+	 * Does the same as above, but the note's rhythm value is no longer than
+	 * maxRhythm
+	 */
+	@Override
+	public Note getNextNote(long history, int order, double maxRhythm, RandomSource random) {
+		int row = findRow(history, order);
+		if (row < 0) {
+			return NoteMatrix.createFallbackNote(
+					NoteMatrix.getFallbackPitch(NoteMatrix.getLastPitch(history), numOfPitches), maxRhythm);
+		}
+
+		// If none of the pitches have a probability, then there's nothing to
+		// pick from
+		int from = getInt(ROW_START, row);
+		int to = getInt(ROW_START, row + 1);
+		if (from >= to || getDouble(SUCCESSOR_CUMULATIVE, to - 1) <= 0) {
+			Note note = new Note();
+			note.setRhythmValue(Math.min(note.getRhythmValue(), maxRhythm));
+			return note;
+		}
+
+		// Picks the pitch, then a rhythm value and dynamic from the ones found
+		// for that pitch. Pitches the user added by hand have never occurred,
+		// so they use an average rhythm and dynamic instead.
+		int successor = sample(SUCCESSOR_KEEP, SUCCESSOR_ALIAS, from, to - from, random.nextDouble());
+		double rhythm = pickRhythm(successor, maxRhythm, random.nextDouble());
+
+		int dynamic = NoteMatrix.FALLBACK_DYNAMIC;
+		double dynamicNumber = random.nextDouble();
+		int dynamicFrom = getInt(DYNAMIC_START, successor);
+		int dynamicTo = getInt(DYNAMIC_START, successor + 1);
+		if (dynamicFrom < dynamicTo) {
+			dynamic = getInt(DYNAMIC_VALUE,
+					sample(DYNAMIC_KEEP, DYNAMIC_ALIAS, dynamicFrom, dynamicTo - dynamicFrom, dynamicNumber));
+		}
+
+		return new Note(getInt(SUCCESSOR_PITCH, successor), rhythm, dynamic);
+	}
+
+	/*
+	 * Method for picking a rhythm value no longer than maxRhythm for the
+	 * given successor, using a random number between 0 and 1, in the same way
+	 * as MatrixRow
+	 */
+	private double pickRhythm(int successor, double maxRhythm, double randomNumber) {
+		int from = getInt(RHYTHM_START, successor);
+		int to = getInt(RHYTHM_START, successor + 1);
+		if (from == to) {
+			return Math.min(NoteMatrix.FALLBACK_RHYTHM, maxRhythm);
+		}
+
+		// If even the longest rhythm value fits, then every one of them does,
+		// so the alias table can pick one in constant time
+		if (getDouble(RHYTHM_VALUE, to - 1) <= maxRhythm) {
+			return getDouble(RHYTHM_VALUE, sample(RHYTHM_KEEP, RHYTHM_ALIAS, from, to - from, randomNumber));
+		}
+
+		// Otherwise finds the first rhythm value that is too long. The values
+		// are in ascending order, so everything before it fits.
+		int fits = to;
+		int low = from;
+		while (low < fits) {
+			int middle = (low + fits) >>> 1;
+			if (getDouble(RHYTHM_VALUE, middle) > maxRhythm) {
+				fits = middle;
+			} else {
+				low = middle + 1;
+			}
+		}
+		if (fits == from) {
+			return maxRhythm;
+		}
+
+		// Then picks the first one whose running total is larger than a
+		// random point between 0 and the total count of the ones that fit
+		double target = randomNumber * getInt(RHYTHM_CUMULATIVE, fits - 1);
+		low = from;
+		int high = fits - 1;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (getInt(RHYTHM_CUMULATIVE, middle) > target) {
+				high = middle;
+			} else {
+				low = middle + 1;
+			}
+		}
+		return getDouble(RHYTHM_VALUE, low);
+	}
+
+	/*
+	 * Returns the longest context of previous pitches the model has counted
+	 */
+	@Override
+	public int getOrder() {
+		return order;
+	}
+
+	/*
+	 * Returns the total number of pitches found in the imported files
+	 */
+	@Override
+	public int getNumOfPitches() {
+		return numOfPitches;
+	}
+
+	/*
+	 * Returns a vector containing the probability of every pitch following the
+	 * chain note1, note2
+	 */
+	@Override
+	public Vector<Double> getProbabilityArray(int note1, int note2) {
+		int row = findBackoffRow(note1, note2);
+		if (row < 0) {
+			return NoteMatrix.getFallbackProbabilityArray(note2, numOfPitches);
+		}
+
+		Vector<Double> prob = new Vector<Double>(numOfPitches);
+		for (int i = 0; i < numOfPitches; i++) {
+			prob.add(0.0);
+		}
+		int to = getInt(ROW_START, row + 1);
+		for (int s = getInt(ROW_START, row); s < to && getInt(SUCCESSOR_PITCH, s) < numOfPitches; s++) {
+			prob.set(getInt(SUCCESSOR_PITCH, s), getDouble(SUCCESSOR_PROBABILITY, s));
+		}
+		return prob;
+	}
+
+	/*
+	 * Returns the probability of note3 following the chain note1, note2. The
+	 * successors of a row are in ascending order, so they are searched with a
+	 * binary search.
+	 */
+	@Override
+	public double getProbability(int note1, int note2, int note3) {
+		int row = findBackoffRow(note1, note2);
+		if (row < 0) {
+			return NoteMatrix.getFallbackProbability(note2, note3, numOfPitches);
+		}
+
+		int low = getInt(ROW_START, row);
+		int high = getInt(ROW_START, row + 1) - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int pitch = getInt(SUCCESSOR_PITCH, middle);
+			if (pitch < note3) {
+				low = middle + 1;
+			} else if (pitch > note3) {
+				high = middle - 1;
+			} else {
+				return getDouble(SUCCESSOR_PROBABILITY, middle);
+			}
+		}
+		return 0;
+	}
+
+	/*
+	 * Returns the number of times the chain note1, note2 has occurred
+	 */
+	@Override
+	public int getNumOfNotesForChain(int note1, int note2) {
+		int row = findRow(note1, note2);
+		if (row < 0) {
+			return 0;
+		}
+		return getInt(ROW_TOTALS, row);
+	}
+
+	/*
+	 * Loads every row into a NoteMatrix, which can then be edited or have
+	 * more files added to it
+	 */
+	NoteMatrix toNoteMatrix() {
+		int occurrencesLength = getOccurrencesLength();
+		int[] occurrences = new int[occurrencesLength];
+		for (int i = 0; i < occurrencesLength; i++) {
+			occurrences[i] = getInt(PITCH_OCCURRENCES, i);
+		}
+		NoteMatrix matrix = new NoteMatrix(numOfPitches, occurrences, order);
+
+		for (int r = 0; r < getRowCount(); r++) {
+			MatrixRow row = new MatrixRow();
+			for (int s = getInt(ROW_START, r); s < getInt(ROW_START, r + 1); s++) {
+				int pitch = getInt(SUCCESSOR_PITCH, s);
+				row.restorePitch(pitch, getInt(SUCCESSOR_COUNT, s), getDouble(SUCCESSOR_PROBABILITY, s));
+				for (int i = getInt(RHYTHM_START, s); i < getInt(RHYTHM_START, s + 1); i++) {
+					row.restoreRhythm(pitch, getDouble(RHYTHM_VALUE, i), getInt(RHYTHM_COUNT, i));
+				}
+				for (int i = getInt(DYNAMIC_START, s); i < getInt(DYNAMIC_START, s + 1); i++) {
+					row.restoreDynamic(pitch, getInt(DYNAMIC_VALUE, i), getInt(DYNAMIC_COUNT, i));
+				}
+			}
+			row.finishRestore();
+			matrix.putRow(getRowKey(r), row);
+		}
+		return matrix;
+	}
+
+	/*
+	 * Returns the number of entries in the PITCH_OCCURRENCES section
+	 */
+	abstract int getOccurrencesLength();
+}
@@ -0,0 +1,63 @@
+package data;
+
+import java.util.SplittableRandom;
+
+/**
+ * @author Benjamin Henshall
+ *
+ *         Random source that produces the same numbers every time it is
+ *         created with the same seed. Not safe to share between threads, so
+ *         each thread should use its own, either created with forStream or
+ *         split off from another source.
+ */
+public class SplittableRandomSource implements RandomSource {
+
+	private final SplittableRandom random;
+
+	public SplittableRandomSource(long seed) {
+		this(new SplittableRandom(seed));
+	}
+
+	private SplittableRandomSource(SplittableRandom random) {
+		this.random = random;
+	}
+
+	/*
+	 * Creates the source for one of many separate streams of numbers made from
+	 * the same seed. Used to give each score in a batch its own source, so
+	 * every score is the same whichever thread generates it and in whatever
+	 * order.
+	 */
+	public static SplittableRandomSource forStream(long seed, long stream) {
+		// Scrambles the stream number before combining it with the seed, so
+		// that neighbouring streams don't start from neighbouring states
+		return new SplittableRandomSource(seed ^ mix(stream + 1));
+	}
+
+	/*
+	 * Scrambles the bits of a number (the finaliser of MurmurHash3)
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+		z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		return z ^ (z >>> 33);
+	}
+
+	/*
+	 * Creates a new source whose numbers are independent of this one's, for
+	 * handing to another thread
+	 */
+	public SplittableRandomSource split() {
+		return new SplittableRandomSource(random.split());
+	}
+
+	@Override
+	public double nextDouble() {
+		return random.nextDouble();
+	}
+
+	@Override
+	public int nextInt(int bound) {
+		return random.nextInt(bound);
+	}
+}
@@ -0,0 +1,29 @@
+package data;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @author Benjamin Henshall
+ *
+ *         Random source used when no seed is given. Each thread uses its own
+ *         generator, so any number of threads can share this source without
+ *         waiting for each other. The numbers can't be reproduced.
+ */
+public class ThreadLocalRandomSource implements RandomSource {
+
+	// The source holds no state of its own, so one instance is shared
+	public static final ThreadLocalRandomSource INSTANCE = new ThreadLocalRandomSource();
+
+	private ThreadLocalRandomSource() {
+	}
+
+	@Override
+	public double nextDouble() {
+		return ThreadLocalRandom.current().nextDouble();
+	}
+
+	@Override
+	public int nextInt(int bound) {
+		return ThreadLocalRandom.current().nextInt(bound);
+	}
+}
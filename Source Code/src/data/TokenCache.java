@@ -0,0 +1,341 @@
+package data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jm.midi.MidiParser;
+import jm.midi.SMF;
+import jm.music.data.Score;
+
+/**
+ * @author Benjamin Henshall
+ *
+ *         Class used to remember the tokens of every MIDI file that has been
+ *         read, so a file only ever has to be parsed once. Entries are keyed
+ *         by the SHA-256 hash of the file's contents rather than its path, so
+ *         a file that is moved or renamed is still found, and a file that has
+ *         been changed is read again.
+ *
+ *         Tokens are kept in memory up to a maximum total number of notes,
+ *         with the least recently used file forgotten first, so the memory
+ *         used is the same however many files are imported. If a folder is given, the
+ *         tokens are also saved there, so they are still available the next
+ *         time the program runs. Can be used by several threads at once.
+ */
+public class TokenCache {
+
+	// Number of notes remembered in memory by the default cache. Each note
+	// takes up 16 bytes, so this is around 16MB.
+	public static final int DEFAULT_CAPACITY = 1 << 20;
+
+	// Extension and header of the files the tokens are saved in
+	public static final String EXTENSION = "jmt";
+	private static final int MAGIC = 0x4A4D5458;
+	private static final int VERSION = 1;
+
+	// Cache used when training unless another is chosen. Only remembers
+	// tokens in memory.
+	private static volatile TokenCache defaultCache = new TokenCache(DEFAULT_CAPACITY, null);
+
+	// Tokens of each file, keyed by the hash of its contents. Kept in access
+	// order so that the first entry is always the least recently used.
+	private final LinkedHashMap<String, NoteTokens> entries;
+
+	// Most notes kept in memory, and the number of notes currently kept
+	private final long capacity;
+	private long size;
+
+	// Folder the tokens are saved in, or null if they are only kept in memory
+	private final File folder;
+
+	// Number of files found in the cache (in memory or on disk) and the
+	// number that had to be parsed
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/*
+	 * Creates a cache that remembers the tokens of files in memory until they
+	 * add up to "capacity" notes, and saves tokens in the given folder if it
+	 * isn't null. A capacity of 0 means tokens are only saved in the folder.
+	 */
+	public TokenCache(long capacity, File folder) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("Capacity can't be negative");
+		}
+		this.capacity = capacity;
+		this.folder = folder;
+		entries = new LinkedHashMap<String, NoteTokens>(16, 0.75f, true);
+	}
+
+	/*
+	 * Getter and setter for the cache used when training
+	 */
+	public static TokenCache getDefault() {
+		return defaultCache;
+	}
+
+	public static void setDefault(TokenCache cache) {
+		defaultCache = cache;
+	}
+
+	/*
+	 * Class used to return the tokens of a file along with the hash of the
+	 * contents they were read from, which is null if the file couldn't be
+	 * read. The hash can later be given to getTokensByHash to fetch exactly
+	 * the same tokens, even if the file has been changed or deleted since.
+	 */
+	public static final class Entry {
+		private final String hash;
+		private final NoteTokens tokens;
+
+		Entry(String hash, NoteTokens tokens) {
+			this.hash = hash;
+			this.tokens = tokens;
+		}
+
+		public String getHash() {
+			return hash;
+		}
+
+		public NoteTokens getTokens() {
+			return tokens;
+		}
+	}
+
+	/*
+	 * Method for fetching the tokens of a MIDI file. The file is always read
+	 * so its hash can be worked out, but it is only parsed if its tokens
+	 * aren't in memory or saved on disk. As with Read.midi, a file that can't
+	 * be read or parsed is treated as having no notes.
+	 */
+	public NoteTokens getTokens(String path) {
+		return read(path).getTokens();
+	}
+
+	/*
+	 * Does the same as above, but also returns the hash of the contents the
+	 * tokens were read from
+	 */
+	public Entry read(String path) {
+		byte[] contents;
+		try {
+			contents = Files.readAllBytes(new File(path).toPath());
+		} catch (IOException e) {
+			System.err.println("Could not read " + path + ": " + e.getMessage());
+			return new Entry(null, NoteTokens.EMPTY);
+		}
+
+		String key = hash(contents);
+		NoteTokens tokens = getFromMemory(key);
+		if (tokens == null) {
+			tokens = load(key);
+		}
+		if (tokens != null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+			tokens = parse(contents, path);
+			save(key, tokens);
+		}
+		putInMemory(key, tokens);
+		return new Entry(key, tokens);
+	}
+
+	/*
+	 * Method for fetching the tokens of a file whose contents had the given
+	 * hash, without reading the file. Returns null if they are no longer
+	 * remembered in memory or saved on disk.
+	 */
+	public NoteTokens getTokensByHash(String hash) {
+		// The hash is used as a file name, so anything that isn't a hash
+		// (e.g. from a damaged model file) is never looked up
+		if (hash == null || !hash.matches("[0-9a-f]{64}")) {
+			return null;
+		}
+		NoteTokens tokens = getFromMemory(hash);
+		if (tokens == null) {
+			tokens = load(hash);
+		}
+		if (tokens != null) {
+			hits.incrementAndGet();
+			putInMemory(hash, tokens);
+		}
+		return tokens;
+	}
+
+	private synchronized NoteTokens getFromMemory(String key) {
+		return entries.get(key);
+	}
+
+	/*
+	 * Method for remembering tokens in memory, forgetting the least recently
+	 * used files until there's room for them. Files with more notes than the
+	 * whole cache can hold aren't remembered.
+	 */
+	private synchronized void putInMemory(String key, NoteTokens tokens) {
+		if (tokens.getNoteCount() > capacity) {
+			return;
+		}
+		NoteTokens previous = entries.put(key, tokens);
+		if (previous != null) {
+			size -= previous.getNoteCount();
+		}
+		size += tokens.getNoteCount();
+
+		Iterator<NoteTokens> eldest = entries.values().iterator();
+		while (size > capacity) {
+			size -= eldest.next().getNoteCount();
+			eldest.remove();
+		}
+	}
+
+	/*
+	 * Method for turning the contents of a MIDI file into tokens. Most files
+	 * are read straight into tokens by MidiTokenReader. The few it can't read
+	 * exactly as jMusic would are read with jMusic instead, in the same way
+	 * Read.midi reads a file.
+	 */
+	private static NoteTokens parse(byte[] contents, String path) {
+		try {
+			return MidiTokenReader.read(contents);
+		} catch (IOException e) {
+			// Read with jMusic below
+		}
+
+		try {
+			SMF smf = new SMF();
+			smf.read(new ByteArrayInputStream(contents));
+			Score score = new Score();
+			MidiParser.SMFToScore(score, smf);
+			return NoteTokens.fromScore(score);
+		} catch (IOException e) {
+			System.err.println("Could not parse " + path + ": " + e.getMessage());
+			return NoteTokens.EMPTY;
+		}
+	}
+
+	/*
+	 * Method for loading the saved tokens with the given key. Returns null if
+	 * there is no folder, they haven't been saved or the file is damaged.
+	 */
+	private NoteTokens load(String key) {
+		if (folder == null) {
+			return null;
+		}
+		File file = new File(folder, key + "." + EXTENSION);
+		if (!file.isFile()) {
+			return null;
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return null;
+			}
+			return NoteTokens.read(in);
+		} catch (IOException e) {
+			// A damaged file is simply parsed again and overwritten
+			return null;
+		}
+	}
+
+	/*
+	 * Method for saving tokens with the given key, if there is a folder. The
+	 * tokens are written to a temporary file which is then renamed, so
+	 * another thread or program never sees a half written file. The cache
+	 * still works if saving fails, so failures are only reported.
+	 */
+	private void save(String key, NoteTokens tokens) {
+		if (folder == null) {
+			return;
+		}
+		File file = new File(folder, key + "." + EXTENSION);
+		try {
+			if (!folder.isDirectory() && !folder.mkdirs()) {
+				throw new IOException("Could not create " + folder);
+			}
+			File temp = File.createTempFile(key, ".tmp", folder);
+			try {
+				try (DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(new FileOutputStream(temp)))) {
+					out.writeInt(MAGIC);
+					out.writeInt(VERSION);
+					tokens.write(out);
+				}
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			} finally {
+				Files.deleteIfExists(temp.toPath());
+			}
+		} catch (IOException e) {
+			System.err.println("Could not save tokens to " + file + ": " + e.getMessage());
+		}
+	}
+
+	/*
+	 * Returns the SHA-256 hash of the given contents as a hex string
+	 */
+	private static String hash(byte[] contents) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+		byte[] hash = digest.digest(contents);
+		StringBuilder hex = new StringBuilder(hash.length * 2);
+		for (byte b : hash) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	/*
+	 * Returns the number of files whose tokens were found in the cache
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/*
+	 * Returns the number of files that had to be parsed
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/*
+	 * Returns the number of files currently remembered in memory
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/*
+	 * Returns the total number of notes currently remembered in memory
+	 */
+	public synchronized long getNoteCount() {
+		return size;
+	}
+
+	/*
+	 * Forgets every file remembered in memory. Saved tokens are kept.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		size = 0;
+	}
+}
@@ -18,6 +18,8 @@ import javax.swing.JTextArea;
  */
 public class AboutDialog extends JDialog {
 
+	private static final long serialVersionUID = 1L;
+
 	// String storing contact and licensing information
 	String USER_GUIDE_TEXT = "Contact:\nBen@henshall.plus.com\n\n"
 
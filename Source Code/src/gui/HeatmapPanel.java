@@ -0,0 +1,289 @@
+package gui;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+
+/**
+ * @author Benjamin Henshall
+ *
+ *         Panel used to show the whole matrix as a heatmap, with one row for
+ *         every chain and one column for every pitch, coloured the same way as
+ *         the matrix table. The mouse wheel zooms in and out around the
+ *         pointer, dragging moves around, and double clicking a cell opens it
+ *         in the matrix table so it can be edited.
+ *
+ *         The heatmap is painted from tiles built by HeatmapTiles in the
+ *         background, using whichever level of detail is closest to the
+ *         current zoom.
+ */
+public class HeatmapPanel extends JPanel {
+
+	private static final long serialVersionUID = 1L;
+
+	// How much one notch of the mouse wheel zooms by
+	private static final double WHEEL_ZOOM = 1.2;
+
+	// Largest size of a cell on screen, in pixels
+	private static final double MAX_SCALE = 48;
+
+	// MatrixPanel this heatmap belongs to, used to open a cell in the table
+	private final MatrixPanel matrixPanel;
+
+	// Number of pitches (columns) and chains (rows) in the matrix
+	private final int numOfPitches;
+	private final int numOfChains;
+
+	// Tiles currently being shown, and the thread building them
+	private HeatmapTiles tiles;
+	private Thread builder;
+
+	// Size of a cell on screen in pixels. Columns and rows are zoomed
+	// together, but start at different sizes so the whole matrix fits. 0 until
+	// the panel has a size.
+	private double scaleX;
+	private double scaleY;
+
+	// Cell shown at the top left corner of the panel. Not whole numbers, so
+	// the view can move smoothly.
+	private double offsetX;
+	private double offsetY;
+
+	// Where the mouse was last seen while dragging
+	private Point dragStart;
+
+	public HeatmapPanel(MatrixPanel matrixPanel, int numOfPitches) {
+		this.matrixPanel = matrixPanel;
+		this.numOfPitches = Math.max(1, numOfPitches);
+		this.numOfChains = this.numOfPitches * this.numOfPitches;
+		setBackground(Color.DARK_GRAY);
+
+		// Turns on tool tips, the text of which is worked out in
+		// getToolTipText
+		setToolTipText("");
+
+		MouseAdapter mouse = new MouseAdapter() {
+			@Override
+			public void mousePressed(MouseEvent e) {
+				dragStart = e.getPoint();
+			}
+
+			@Override
+			public void mouseDragged(MouseEvent e) {
+				if (dragStart != null && scaleX > 0) {
+					offsetX -= (e.getX() - dragStart.x) / scaleX;
+					offsetY -= (e.getY() - dragStart.y) / scaleY;
+					dragStart = e.getPoint();
+					clampOffsets();
+					repaint();
+				}
+			}
+
+			@Override
+			public void mouseReleased(MouseEvent e) {
+				dragStart = null;
+			}
+
+			@Override
+			public void mouseWheelMoved(MouseWheelEvent e) {
+				zoom(Math.pow(WHEEL_ZOOM, -e.getPreciseWheelRotation()), e.getX(), e.getY());
+			}
+
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				// Double clicking opens the cell in the matrix table
+				if (e.getClickCount() == 2 && SwingUtilities.isLeftMouseButton(e)) {
+					int row = getRowAt(e.getY());
+					int column = getColumnAt(e.getX());
+					if (row >= 0 && column >= 0) {
+						HeatmapPanel.this.matrixPanel.showCell(row, column);
+					}
+				}
+			}
+		};
+		addMouseListener(mouse);
+		addMouseMotionListener(mouse);
+		addMouseWheelListener(mouse);
+	}
+
+	/*
+	 * Throws away the current tiles and starts building new ones from the
+	 * matrix in the background. Called whenever the heatmap is shown, as the
+	 * matrix may have been edited since it was last built.
+	 */
+	public void rebuild() {
+		stopBuilding();
+
+		final HeatmapTiles newTiles = new HeatmapTiles(numOfPitches);
+		tiles = newTiles;
+		builder = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					newTiles.build(ForkJoinPool.commonPool(), new Runnable() {
+						@Override
+						public void run() {
+							repaint();
+						}
+					});
+				} catch (InterruptedException e) {
+					// Building was stopped, nothing else to do
+				}
+			}
+		}, "Heatmap builder");
+		builder.setDaemon(true);
+		builder.start();
+		repaint();
+	}
+
+	/*
+	 * Stops building tiles and waits for the builder to finish. Must be called
+	 * before the matrix is edited, as the builder reads from it.
+	 */
+	public void stopBuilding() {
+		if (builder != null) {
+			tiles.cancel();
+			try {
+				builder.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			builder = null;
+		}
+	}
+
+	/*
+	 * Zooms by the given factor, keeping the cell under the point (x, y) in
+	 * the same place on screen
+	 */
+	public void zoom(double factor, int x, int y) {
+		if (scaleX <= 0) {
+			return;
+		}
+
+		// Never zooms out further than the whole matrix, or in further than
+		// the largest cell size
+		double minX = getFitScaleX();
+		double minY = getFitScaleY();
+		factor = Math.max(factor, Math.max(minX / scaleX, minY / scaleY));
+		factor = Math.min(factor, Math.min(MAX_SCALE / scaleX, MAX_SCALE / scaleY));
+
+		double cellX = offsetX + x / scaleX;
+		double cellY = offsetY + y / scaleY;
+		scaleX *= factor;
+		scaleY *= factor;
+		offsetX = cellX - x / scaleX;
+		offsetY = cellY - y / scaleY;
+		clampOffsets();
+		repaint();
+	}
+
+	/*
+	 * Sizes of a cell that fit the whole matrix in the panel
+	 */
+	private double getFitScaleX() {
+		return (double) Math.max(1, getWidth()) / numOfPitches;
+	}
+
+	private double getFitScaleY() {
+		return (double) Math.max(1, getHeight()) / numOfChains;
+	}
+
+	/*
+	 * Stops the view from moving past the edges of the matrix
+	 */
+	private void clampOffsets() {
+		offsetX = Math.max(0, Math.min(offsetX, numOfPitches - getWidth() / scaleX));
+		offsetY = Math.max(0, Math.min(offsetY, numOfChains - getHeight() / scaleY));
+	}
+
+	/*
+	 * Returns the row (chain) at the given y position, or -1 if there isn't
+	 * one
+	 */
+	private int getRowAt(int y) {
+		if (scaleY <= 0) {
+			return -1;
+		}
+		int row = (int) (offsetY + y / scaleY);
+		return row < numOfChains ? row : -1;
+	}
+
+	/*
+	 * Returns the column (pitch) at the given x position, or -1 if there isn't
+	 * one
+	 */
+	private int getColumnAt(int x) {
+		if (scaleX <= 0) {
+			return -1;
+		}
+		int column = (int) (offsetX + x / scaleX);
+		return column < numOfPitches ? column : -1;
+	}
+
+	/*
+	 * Shows the chain, pitch and probability of the cell under the mouse
+	 */
+	@Override
+	public String getToolTipText(MouseEvent e) {
+		int row = getRowAt(e.getY());
+		int column = getColumnAt(e.getX());
+		if (row < 0 || column < 0) {
+			return null;
+		}
+		int note1 = row / numOfPitches;
+		int note2 = row % numOfPitches;
+		return note1 + ", " + note2 + " -> " + column + ": " + MainFrame.getProbability(note1, note2, column);
+	}
+
+	@Override
+	protected void paintComponent(Graphics g) {
+		super.paintComponent(g);
+
+		// The first time the panel has a size, fit the whole matrix in it
+		if (scaleX <= 0 && getWidth() > 0 && getHeight() > 0) {
+			scaleX = getFitScaleX();
+			scaleY = getFitScaleY();
+		}
+
+		HeatmapTiles current = tiles;
+		int built = current == null ? 0 : current.getBuiltLevels();
+		if (built == 0 || scaleX <= 0) {
+			g.setColor(Color.WHITE);
+			g.drawString("Building heatmap...", 20, 20);
+			return;
+		}
+
+		// Picks the level whose rows are closest to one pixel high, or the
+		// smallest level built so far if that one isn't ready
+		int level = 0;
+		while (level + 1 < built && Math.pow(2, level + 1) * scaleY <= 1) {
+			level++;
+		}
+		double rowsPerLevelRow = Math.pow(2, level);
+
+		// Works out which tiles are on screen and draws each one stretched
+		// to its place
+		int levelRows = current.getLevelRows(level);
+		int firstRow = (int) (offsetY / rowsPerLevelRow);
+		int lastRow = (int) Math.min(levelRows - 1, (offsetY + getHeight() / scaleY) / rowsPerLevelRow);
+		int left = (int) Math.round(-offsetX * scaleX);
+		int right = (int) Math.round((numOfPitches - offsetX) * scaleX);
+
+		for (int tile = firstRow / HeatmapTiles.TILE_ROWS; tile <= lastRow / HeatmapTiles.TILE_ROWS; tile++) {
+			BufferedImage image = current.getTile(level, tile);
+			double tileTop = tile * HeatmapTiles.TILE_ROWS * rowsPerLevelRow;
+			double tileBottom = tileTop + image.getHeight() * rowsPerLevelRow;
+			int top = (int) Math.round((tileTop - offsetY) * scaleY);
+			int bottom = (int) Math.round((tileBottom - offsetY) * scaleY);
+			g.drawImage(image, left, top, right, bottom, 0, 0, image.getWidth(), image.getHeight(), null);
+		}
+	}
+}
@@ -0,0 +1,257 @@
+package gui;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * @author Benjamin Henshall
+ *
+ *         Class used to build the images the heatmap is painted from. The
+ *         matrix is drawn one pixel per cell, with one row of pixels for every
+ *         chain, and cut into tiles of TILE_ROWS rows so that only the tiles
+ *         on screen need painting. Smaller copies of the image (levels) are
+ *         also built, each with half as many rows as the one before, so that
+ *         when zoomed out the heatmap paints a few small tiles instead of
+ *         squeezing thousands of rows into a few hundred pixels. Only the rows
+ *         are halved, as there are never more than 128 columns. Each pixel of a
+ *         smaller level is coloured by the highest probability of the two it
+ *         replaces, so a likely note still shows up when zoomed out rather
+ *         than being blended into the colours around it.
+ *
+ *         Every tile of a level is built at the same time on a pool of
+ *         threads. Each level is made available to the heatmap as soon as it's
+ *         finished, so the heatmap can start painting before every level has
+ *         been built.
+ */
+public class HeatmapTiles {
+
+	// Number of rows of pixels in each tile
+	public static final int TILE_ROWS = 256;
+
+	// Number of pitches in the matrix, which is the width of every tile
+	private final int numOfPitches;
+
+	// Number of rows of pixels in each level
+	private final int[] levelRows;
+
+	// Tiles of each level. A level is only put in this array once all of its
+	// tiles are built.
+	private final BufferedImage[][] levels;
+
+	// Number of levels that have been built so far. Levels are built in
+	// order, so levels 0 up to builtLevels - 1 can be used. Written after the
+	// level is stored, so reading it first guarantees the tiles are visible.
+	private volatile int builtLevels;
+
+	// Probability drawn in each pixel of every tile of the level built most
+	// recently, used to build the next smaller level. Only one level is kept,
+	// as the probabilities of the others are never needed again.
+	private double[][] previousValues;
+
+	// Set when building should stop early
+	private volatile boolean cancelled;
+
+	// Colour of each bucket of the palette, taken from the renderer used by
+	// the table so both views use the same colours
+	private final StatusCellRenderer renderer = new StatusCellRenderer();
+
+	public HeatmapTiles(int numOfPitches) {
+		this.numOfPitches = numOfPitches;
+
+		// Works out how many levels are needed for the whole matrix to fit in
+		// a single tile
+		ArrayList<Integer> rows = new ArrayList<Integer>();
+		int levelHeight = Math.max(1, numOfPitches * numOfPitches);
+		rows.add(levelHeight);
+		while (levelHeight > TILE_ROWS) {
+			levelHeight = (levelHeight + 1) / 2;
+			rows.add(levelHeight);
+		}
+		levelRows = new int[rows.size()];
+		for (int i = 0; i < levelRows.length; i++) {
+			levelRows[i] = rows.get(i);
+		}
+		levels = new BufferedImage[levelRows.length][];
+	}
+
+	/*
+	 * Class used to store a tile once built, along with the probability
+	 * drawn in each of its pixels
+	 */
+	private static final class Tile {
+		final BufferedImage image;
+		final double[] values;
+
+		Tile(BufferedImage image, double[] values) {
+			this.image = image;
+			this.values = values;
+		}
+	}
+
+	/*
+	 * Builds every level in turn, with the tiles of each level built at the
+	 * same time using the given pool. onLevelBuilt is run after each level is
+	 * finished. Stops early if cancel is called.
+	 */
+	public void build(ExecutorService pool, Runnable onLevelBuilt) throws InterruptedException {
+		for (int level = 0; level < levelRows.length && !cancelled; level++) {
+			final int currentLevel = level;
+			int tileCount = getTileCount(level);
+
+			List<Callable<Tile>> tasks = new ArrayList<Callable<Tile>>(tileCount);
+			for (int tile = 0; tile < tileCount; tile++) {
+				final int currentTile = tile;
+				tasks.add(new Callable<Tile>() {
+					@Override
+					public Tile call() {
+						if (cancelled) {
+							return null;
+						}
+						if (currentLevel == 0) {
+							return buildMatrixTile(currentTile);
+						}
+						return buildSmallerTile(currentLevel, currentTile);
+					}
+				});
+			}
+
+			BufferedImage[] tiles = new BufferedImage[tileCount];
+			double[][] values = new double[tileCount][];
+			List<Future<Tile>> results = pool.invokeAll(tasks);
+			for (int tile = 0; tile < tileCount; tile++) {
+				try {
+					Tile built = results.get(tile).get();
+					if (built != null) {
+						tiles[tile] = built.image;
+						values[tile] = built.values;
+					}
+				} catch (ExecutionException e) {
+					throw new IllegalStateException("Failed to build heatmap", e.getCause());
+				}
+			}
+			if (cancelled) {
+				previousValues = null;
+				return;
+			}
+
+			levels[level] = tiles;
+			previousValues = level + 1 < levelRows.length ? values : null;
+			builtLevels = level + 1;
+			onLevelBuilt.run();
+		}
+	}
+
+	/*
+	 * Stops building as soon as possible. Levels that are already built can
+	 * still be used.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/*
+	 * Builds a tile of level 0 by reading each cell straight from the matrix.
+	 * If there are no pitches, the tile is left blank.
+	 */
+	private Tile buildMatrixTile(int tile) {
+		int firstRow = tile * TILE_ROWS;
+		int height = Math.min(TILE_ROWS, levelRows[0] - firstRow);
+		int width = Math.max(1, numOfPitches);
+		double[] values = new double[width * height];
+		if (numOfPitches == 0) {
+			return colour(values, width, height);
+		}
+
+		for (int y = 0; y < height && !cancelled; y++) {
+			int chain = firstRow + y;
+			int note1 = chain / numOfPitches;
+			int note2 = chain % numOfPitches;
+			for (int x = 0; x < numOfPitches; x++) {
+				values[y * width + x] = MainFrame.getProbability(note1, note2, x);
+			}
+		}
+		return colour(values, width, height);
+	}
+
+	/*
+	 * Builds a tile of a smaller level from the probabilities of the level
+	 * above it. Each pixel is given the highest probability of the two pixels
+	 * it replaces.
+	 */
+	private Tile buildSmallerTile(int level, int tile) {
+		double[][] larger = previousValues;
+		int largerRows = levelRows[level - 1];
+		int firstRow = tile * TILE_ROWS;
+		int height = Math.min(TILE_ROWS, levelRows[level] - firstRow);
+		int width = Math.max(1, numOfPitches);
+		double[] values = new double[width * height];
+
+		for (int y = 0; y < height && !cancelled; y++) {
+			int top = (firstRow + y) * 2;
+			int bottom = Math.min(top + 1, largerRows - 1);
+			double[] topValues = larger[top / TILE_ROWS];
+			double[] bottomValues = larger[bottom / TILE_ROWS];
+			int topOffset = (top % TILE_ROWS) * width;
+			int bottomOffset = (bottom % TILE_ROWS) * width;
+
+			for (int x = 0; x < width; x++) {
+				values[y * width + x] = Math.max(topValues[topOffset + x], bottomValues[bottomOffset + x]);
+			}
+		}
+		return colour(values, width, height);
+	}
+
+	/*
+	 * Draws a tile from the probability of each of its pixels, using the same
+	 * colours as the table
+	 */
+	private Tile colour(double[] values, int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		for (int i = 0; i < values.length && !cancelled; i++) {
+			pixels[i] = renderer.getColour(values[i]).getRGB();
+		}
+		return new Tile(image, values);
+	}
+
+	/*
+	 * Returns the number of levels that can be used so far
+	 */
+	public int getBuiltLevels() {
+		return builtLevels;
+	}
+
+	/*
+	 * Returns the total number of levels once everything is built
+	 */
+	public int getLevelCount() {
+		return levelRows.length;
+	}
+
+	/*
+	 * Returns the number of rows of pixels in the given level
+	 */
+	public int getLevelRows(int level) {
+		return levelRows[level];
+	}
+
+	/*
+	 * Returns the number of tiles the given level is cut into
+	 */
+	public int getTileCount(int level) {
+		return (levelRows[level] + TILE_ROWS - 1) / TILE_ROWS;
+	}
+
+	/*
+	 * Returns a tile of a level that has been built
+	 */
+	public BufferedImage getTile(int level, int tile) {
+		return levels[level][tile];
+	}
+}
@@ -6,13 +6,23 @@ import java.awt.Insets;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import javax.swing.JButton;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
+import javax.swing.filechooser.FileNameExtensionFilter;
+
+import data.ModelFile;
 
 /**
  * @author Benjamin Henshall
@@ -24,6 +34,8 @@ import javax.swing.JTable;
  */
 public class ImportPanel extends JPanel {
 
+	private static final long serialVersionUID = 1L;
+
 	// Column names used when created the import table
 	private final String[] columnNames = { "File Name", "Path" };
 
@@ -42,6 +54,15 @@ public class ImportPanel extends JPanel {
 	private JButton generateButton;
 	private JButton infoButton;
 	private JButton viewMatrixButton;
+	private JButton saveModelButton;
+	private JButton loadModelButton;
+	private JButton cancelImportButton;
+
+	// Progress bar shown while files are being imported
+	private JProgressBar importProgress;
+
+	// Import currently running in the background, or null if there isn't one
+	private ImportWorker importWorker;
 
 	// MatrixPanel panel used when the user wants to view the note matrix
 	private MatrixPanel matrixPanel;
@@ -52,6 +73,10 @@ public class ImportPanel extends JPanel {
 	// FileChooser for importing files into the program
 	private JFileChooser fc;
 
+	// FileChooser for saving and loading trained models. Only shows model
+	// files.
+	private JFileChooser modelChooser;
+
 	// String to store the last location the user has visited using the
 	// FileChooser. Defaults as the base directory of the .jar file.
 	private String previousImportLoc = System.getProperty("user.dir");
@@ -65,6 +90,9 @@ public class ImportPanel extends JPanel {
 
 		// Instantiates the FileChooser
 		fc = new JFileChooser();
+		modelChooser = new JFileChooser();
+		modelChooser.setFileFilter(new FileNameExtensionFilter("jMusic model (." + ModelFile.EXTENSION + ")",
+				ModelFile.EXTENSION));
 
 		// Gets a new GridBagConstraints for the import button, then creates and
 		// adds the button to the JPanel.
@@ -100,6 +128,31 @@ public class ImportPanel extends JPanel {
 		viewMatrixButton = new JButton("View Matrix");
 		add(viewMatrixButton, c);
 
+		// Gets a new GridBagConstraints for the save model button, then
+		// creates and adds the button to the JPanel.
+		c = MainFrame.generateNewGridBag(3, 1, 1, 1, GridBagConstraints.HORIZONTAL, new Insets(10, 40, 0, 40));
+		saveModelButton = new JButton("Save Model");
+		add(saveModelButton, c);
+
+		// Gets a new GridBagConstraints for the load model button, then
+		// creates and adds the button to the JPanel.
+		c = MainFrame.generateNewGridBag(4, 1, 1, 1, GridBagConstraints.HORIZONTAL, new Insets(10, 40, 0, 40));
+		loadModelButton = new JButton("Load Model");
+		add(loadModelButton, c);
+
+		// Gets a new GridBagConstraints for the import progress bar and cancel
+		// button. Both are hidden until files are imported.
+		c = MainFrame.generateNewGridBag(0, 2, 2, 1, GridBagConstraints.HORIZONTAL, new Insets(10, 40, 0, 0));
+		importProgress = new JProgressBar();
+		importProgress.setStringPainted(true);
+		importProgress.setVisible(false);
+		add(importProgress, c);
+
+		c = MainFrame.generateNewGridBag(3, 2, 2, 1, GridBagConstraints.HORIZONTAL, new Insets(10, 40, 0, 20));
+		cancelImportButton = new JButton("Cancel Import");
+		cancelImportButton.setVisible(false);
+		add(cancelImportButton, c);
+
 		// Gets a new GridBagConstraints for the table
 		c = MainFrame.generateNewGridBag(0, 0, 2, 2, GridBagConstraints.HORIZONTAL, new Insets(0, 40, 0, 0));
 		// Creates a new JTable using a custom DefaultTableModel with null data
@@ -139,12 +192,12 @@ public class ImportPanel extends JPanel {
 					// Gets the collection of files selected by the user
 					File[] selectedFiles = fc.getSelectedFiles();
 					// Adds the files to the list to import
-					addToImports(selectedFiles);
+					String[] newFiles = addToImports(selectedFiles);
 					// Resets the table selection to the first item in the list
 					table.getSelectionModel().setSelectionInterval(0, 0);
-					// Then updates the matrix so that probabilities are up to
-					// date
-					updateMatrix();
+					// Then adds the new files to the matrix so that
+					// probabilities are up to date
+					updateMatrix(newFiles);
 				}
 				// Updates the directory variable to the directory which the
 				// user last visited
@@ -152,6 +205,19 @@ public class ImportPanel extends JPanel {
 			}
 		});
 
+		// Action listener for the cancel import button
+		cancelImportButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				// Stops the import or removal. Files already being read are
+				// finished, but no more are started, and the matrix is left
+				// as it was.
+				if (importWorker != null) {
+					importWorker.stop();
+				}
+			}
+		});
+
 		// Action listener for generate score button
 		generateButton.addActionListener(new ActionListener() {
 			@Override
@@ -216,6 +282,59 @@ public class ImportPanel extends JPanel {
 			}
 		});
 
+		// Action listener for save model button
+		saveModelButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				// Can't save a model if nothing has been imported
+				if (table.getRowCount() == 0) {
+					JOptionPane.showMessageDialog(ImportPanel.this, "Please import at least one file.",
+							"No imports found.", JOptionPane.ERROR_MESSAGE);
+					return;
+				}
+
+				modelChooser.setCurrentDirectory(new File(previousImportLoc));
+				if (modelChooser.showSaveDialog(ImportPanel.this) == JFileChooser.APPROVE_OPTION) {
+					// Adds the extension if the user didn't type it
+					File file = modelChooser.getSelectedFile();
+					if (!file.getName().endsWith("." + ModelFile.EXTENSION)) {
+						file = new File(file.getPath() + "." + ModelFile.EXTENSION);
+					}
+
+					try {
+						MainFrame.saveMatrix(file);
+						MainFrame.useModelJournal(file, true);
+					} catch (IOException ex) {
+						JOptionPane.showMessageDialog(ImportPanel.this, "Could not save model: " + ex.getMessage(),
+								"Save failed.", JOptionPane.ERROR_MESSAGE);
+					}
+				}
+				previousImportLoc = modelChooser.getCurrentDirectory().getAbsolutePath();
+			}
+		});
+
+		// Action listener for load model button
+		loadModelButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				modelChooser.setCurrentDirectory(new File(previousImportLoc));
+				if (modelChooser.showOpenDialog(ImportPanel.this) == JFileChooser.APPROVE_OPTION) {
+					try {
+						// Loads the model, replacing the current matrix and
+						// bringing back any edits made since it was saved,
+						// then shows the files the model was built from
+						String[] imports = MainFrame.loadMatrix(modelChooser.getSelectedFile());
+						MainFrame.useModelJournal(modelChooser.getSelectedFile(), false);
+						setImports(imports);
+					} catch (IOException ex) {
+						JOptionPane.showMessageDialog(ImportPanel.this, "Could not load model: " + ex.getMessage(),
+								"Load failed.", JOptionPane.ERROR_MESSAGE);
+					}
+				}
+				previousImportLoc = modelChooser.getCurrentDirectory().getAbsolutePath();
+			}
+		});
+
 		// Action listener for remove button
 		removeButton.addActionListener(new ActionListener() {
 			@Override
@@ -225,30 +344,32 @@ public class ImportPanel extends JPanel {
 
 				// Gets the rows the user has selected
 				int[] rowsSelected = table.getSelectedRows();
+				if (rowsSelected.length == 0) {
+					return;
+				}
 
-				// Loops through the rows selected and removes them. Removes
-				// row[i]-i because remaining rows are shifted down each time a
-				// row is removed.
+				// Array for storing the paths of the files being removed
+				String[] removedFiles = new String[rowsSelected.length];
 				for (int i = 0; i < rowsSelected.length; i++) {
-					tempModel.removeRow(rowsSelected[i] - i);
+					removedFiles[i] = (String) tempModel.getValueAt(rowsSelected[i], 1);
 				}
 
-				// If there's no imports left in the table, then disable the
-				// remove button.
-				if (tempModel.getRowCount() == 0) {
-					removeButton.setEnabled(false);
-				} else {
-					// Else set the selection to the first element in the table
-					table.getSelectionModel().setSelectionInterval(0, 0);
-				}
+				// Then removes the files from the matrix in the background so
+				// they no longer affect the probabilities. The rows are taken
+				// out of the table once the files have been removed.
+				startWorker(removedFiles, true);
 			}
 		});
 	}
 
 	/*
-	 * Method for adding imported files to the matrix
+	 * Method for adding imported files to the import table. Returns the paths
+	 * of the files that were not already in the table.
 	 */
-	public void addToImports(File[] importFiles) {
+	public String[] addToImports(File[] importFiles) {
+		// List of the files that have been added to the table
+		ArrayList<String> newFiles = new ArrayList<String>();
+
 		// Loops over all files given
 		for (int i = 0; i < importFiles.length; i++) {
 			// Check if file is MIDI. Needs two ways of checking due to
@@ -275,6 +396,7 @@ public class ImportPanel extends JPanel {
 				// If no duplicate is found, then add the new entry to the model
 				if (!foundDuplicate) {
 					model.addRow(new Object[] { fileName, importFiles[i].getAbsolutePath() });
+					newFiles.add(importFiles[i].getAbsolutePath());
 				}
 
 				// Then update the table with the modified model and
@@ -295,26 +417,146 @@ public class ImportPanel extends JPanel {
 		if (table.getRowCount() > 0) {
 			removeButton.setEnabled(true);
 		}
+
+		return newFiles.toArray(new String[newFiles.size()]);
 	}
 
 	/*
-	 * Method for updating the matrix using the files in the import table
+	 * Returns the paths of every file in the import table
 	 */
-	public void updateMatrix() {
-		// Creates a new String array to store the file paths in
-		String[] files = new String[table.getRowCount()];
+	public String[] getImports() {
+		UneditableDTM model = (UneditableDTM) table.getModel();
+		String[] imports = new String[model.getRowCount()];
+		for (int i = 0; i < imports.length; i++) {
+			imports[i] = (String) model.getValueAt(i, 1);
+		}
+		return imports;
+	}
 
-		// Gets the model of the import table
+	/*
+	 * Method for replacing the contents of the import table with the given
+	 * paths. Used when a saved model is loaded, as the matrix already contains
+	 * these files.
+	 */
+	public void setImports(String[] imports) {
 		UneditableDTM model = (UneditableDTM) table.getModel();
+		model.setRowCount(0);
+		for (int i = 0; i < imports.length; i++) {
+			model.addRow(new Object[] { new File(imports[i]).getName(), imports[i] });
+		}
+		removeButton.setEnabled(imports.length > 0);
+		if (imports.length > 0) {
+			table.getSelectionModel().setSelectionInterval(0, 0);
+		}
+		repaint();
+		revalidate();
+	}
+
+	/*
+	 * Method for updating the matrix with files that have just been added to
+	 * the import table. The files are read in the background, and the rest of
+	 * the panel is disabled until they have been added to the matrix.
+	 */
+	public void updateMatrix(String[] newFiles) {
+		// Files that were already imported are still in the matrix, so
+		// there's nothing to do if every file was already imported
+		if (newFiles.length == 0) {
+			return;
+		}
+
+		startWorker(newFiles, false);
+	}
+
+	/*
+	 * Method for starting an ImportWorker to import or remove the given
+	 * files, disabling the rest of the panel until it has finished
+	 */
+	private void startWorker(String[] files, boolean removing) {
+		setImporting(true);
+		importProgress.setMaximum(files.length);
+		importProgress.setValue(0);
+		importProgress.setString((removing ? "Removing " : "Importing ") + files.length + " files...");
+		cancelImportButton.setText(removing ? "Cancel Removal" : "Cancel Import");
+
+		importWorker = new ImportWorker(this, files, removing);
+		importWorker.execute();
+	}
+
+	/*
+	 * Method called by the ImportWorker as files are read, to show how far
+	 * the import has got
+	 */
+	public void showImportProgress(int filesRead, int totalFiles, String status) {
+		importProgress.setMaximum(totalFiles);
+		importProgress.setValue(filesRead);
+		importProgress.setString(status);
+	}
 
-		// Loops through the table, filling the string array with the paths of
-		// the files
-		for (int i = 0; i < table.getRowCount(); i++) {
-			files[i] = (String) model.getValueAt(i, 1);
+	/*
+	 * Method called by the ImportWorker once it has stopped. If an import
+	 * didn't finish, then the matrix is unchanged, so the files are taken
+	 * back out of the import table. Removed files are only taken out of the
+	 * table once the removal has finished.
+	 */
+	public void importFinished(ImportWorker worker) {
+		importWorker = null;
+		try {
+			worker.get();
+			if (worker.isRemoving()) {
+				removeFromImports(worker.getFiles());
+			}
+		} catch (ExecutionException e) {
+			if (!worker.isRemoving()) {
+				removeFromImports(worker.getFiles());
+			}
+			if (!(e.getCause() instanceof CancellationException)) {
+				String action = worker.isRemoving() ? "remove" : "import";
+				JOptionPane.showMessageDialog(ImportPanel.this,
+						"Could not " + action + " files: " + e.getCause().getMessage(),
+						worker.isRemoving() ? "Remove failed." : "Import failed.", JOptionPane.ERROR_MESSAGE);
+			}
+		} catch (InterruptedException e) {
+			// The worker has already finished, so get never waits
+			Thread.currentThread().interrupt();
 		}
+		setImporting(false);
+	}
 
-		// Then adds them to the matrix
-		MainFrame.addToMatrix(files);
+	/*
+	 * Method for disabling the buttons that use the matrix while files are
+	 * being imported or removed, and showing the progress bar and cancel
+	 * button instead. The matrix is being changed in the background, so it
+	 * mustn't be edited, replaced or viewed until the worker has finished.
+	 */
+	private void setImporting(boolean importing) {
+		importButton.setEnabled(!importing);
+		generateButton.setEnabled(!importing);
+		viewMatrixButton.setEnabled(!importing);
+		saveModelButton.setEnabled(!importing);
+		loadModelButton.setEnabled(!importing);
+		removeButton.setEnabled(!importing && table.getRowCount() > 0);
+
+		importProgress.setVisible(importing);
+		cancelImportButton.setVisible(importing);
+		revalidate();
+		repaint();
+	}
+
+	/*
+	 * Method for removing the given paths from the import table, used when
+	 * files are removed or an import doesn't finish
+	 */
+	private void removeFromImports(String[] files) {
+		HashSet<String> removed = new HashSet<String>(Arrays.asList(files));
+		UneditableDTM model = (UneditableDTM) table.getModel();
+		for (int i = model.getRowCount() - 1; i >= 0; i--) {
+			if (removed.contains(model.getValueAt(i, 1))) {
+				model.removeRow(i);
+			}
+		}
+		if (model.getRowCount() > 0) {
+			table.getSelectionModel().setSelectionInterval(0, 0);
+		}
 	}
 
 	/*
@@ -0,0 +1,150 @@
+package gui;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.swing.SwingWorker;
+
+import data.MatrixTrainer;
+
+/**
+ * @author Benjamin Henshall
+ *
+ *         Class used to import or remove files in the background, so the
+ *         window keeps responding however many files there are. The files are
+ *         read and counted, then their counts are added to or removed from the
+ *         matrix and the rows they changed are compiled again, all away from
+ *         the Swing thread. The current matrix is only replaced once the new
+ *         version is completely finished, so nothing ever sees a half built
+ *         matrix.
+ *
+ *         The ImportPanel is told after each file is read so it can show the
+ *         progress, and once the import has finished, failed or been
+ *         stopped. The import is stopped with stop rather than cancel, so
+ *         that the panel is only told once the worker really has finished,
+ *         by which time the matrix has either been changed or been left as it
+ *         was.
+ */
+public class ImportWorker extends SwingWorker<Void, String> {
+
+	// Panel showing the progress of the import
+	private final ImportPanel importPanel;
+
+	// Paths of the files being imported or removed
+	private final String[] files;
+
+	// True if the files are being removed rather than imported
+	private final boolean removing;
+
+	// Number of files and bytes read so far. Updated by the threads reading
+	// the files.
+	private final AtomicInteger filesRead = new AtomicInteger();
+	private final AtomicLong bytesRead = new AtomicLong();
+
+	// Time the import started, used to work out how quickly files are read
+	private volatile long startTime;
+
+	// Set once the user has asked for the import to stop
+	private volatile boolean stopped;
+
+	// Listener given to the trainer, called from the threads reading the
+	// files
+	private final MatrixTrainer.Listener listener = new MatrixTrainer.Listener() {
+		@Override
+		public void fileRead(String file) {
+			ImportWorker.this.fileRead(file);
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return stopped;
+		}
+	};
+
+	public ImportWorker(ImportPanel importPanel, String[] files, boolean removing) {
+		this.importPanel = importPanel;
+		this.files = files.clone();
+		this.removing = removing;
+	}
+
+	/*
+	 * Returns the paths of the files being imported or removed
+	 */
+	public String[] getFiles() {
+		return files.clone();
+	}
+
+	/*
+	 * Returns true if the files are being removed rather than imported
+	 */
+	public boolean isRemoving() {
+		return removing;
+	}
+
+	/*
+	 * Method for stopping the import or removal. Files already being read
+	 * are finished, but no more are started. If every file has already been
+	 * read, the matrix is changed anyway.
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	/*
+	 * Reads the files and adds them to or removes them from the matrix on the
+	 * worker thread
+	 */
+	@Override
+	protected Void doInBackground() {
+		startTime = System.nanoTime();
+		if (removing) {
+			MainFrame.removeFromMatrix(files, listener);
+		} else {
+			MainFrame.addToMatrix(files, listener);
+		}
+		return null;
+	}
+
+	/*
+	 * Called from the threads reading the files after each one is counted.
+	 * publish passes the file to the Swing thread, joining together files
+	 * read close together so the panel isn't updated more often than it can
+	 * paint.
+	 */
+	private void fileRead(String file) {
+		bytesRead.addAndGet(new File(file).length());
+		filesRead.incrementAndGet();
+		publish(file);
+	}
+
+	/*
+	 * Shows the progress of the import. Runs on the Swing thread.
+	 */
+	@Override
+	protected void process(List<String> chunks) {
+		String lastFile = new File(chunks.get(chunks.size() - 1)).getName();
+		importPanel.showImportProgress(filesRead.get(), files.length, getStatus(lastFile));
+	}
+
+	/*
+	 * Returns a description of how far the import has got and how quickly
+	 * files are being read, e.g. "Read canon.mid (3 of 20, 12.5 files/s, 0.41
+	 * MB/s)"
+	 */
+	private String getStatus(String lastFile) {
+		int read = filesRead.get();
+		double seconds = Math.max(1e-3, (System.nanoTime() - startTime) / 1e9);
+		return String.format("%s %s (%d of %d, %.1f files/s, %.2f MB/s)", removing ? "Removed" : "Read", lastFile,
+				read, files.length, read / seconds, bytesRead.get() / seconds / (1024 * 1024));
+	}
+
+	/*
+	 * Tells the panel whether the files were added or removed, so it can
+	 * update the import table. Runs on the Swing thread.
+	 */
+	@Override
+	protected void done() {
+		importPanel.importFinished(this);
+	}
+}
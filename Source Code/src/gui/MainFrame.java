@@ -22,20 +22,30 @@ package gui;
 
 import java.awt.GridBagConstraints;
 import java.awt.Insets;
-import java.util.Vector;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.JFrame;
 import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
 
+import cli.BatchGenerator;
+import cli.GenerationServer;
+import data.CompiledModel;
+import data.EditJournal;
+import data.GenerationContext;
+import data.GenerationEngine;
+import data.MatrixTrainer;
+import data.ModelFile;
+import data.ModelStore;
+import data.ModelVersion;
 import data.NoteMatrix;
+import data.ProbabilityMatrix;
+import data.ThreadLocalRandomSource;
 import jm.JMC;
-import jm.music.data.Note;
-import jm.music.data.Part;
-import jm.music.data.Phrase;
 import jm.music.data.Score;
-import jm.util.Read;
 
 /**
  * Authors note for producing similar songs using only one import:
@@ -74,10 +84,6 @@ import jm.util.Read;
  */
 public class MainFrame implements JMC {
 
-	// Constant for changing how long a bar is. A bar of length 2 is equal to a
-	// normal measure.
-	private static final double BAR_LENGTH = 2;
-
 	// String constant for storing the default phrase composition of the song.
 	// Must be a string letters from the English alphabet.
 	public static final String DEFAULT_COMP = "ABCDEFGHI";
@@ -86,14 +92,11 @@ public class MainFrame implements JMC {
 	public static final int DEFAULT_INST = PIANO;
 
 	// Main data structure used to store a list of all chains and the
-	// probabilities associated with those notes.
-	private static NoteMatrix noteMatrix;
-
-	// Two variables used to store which two notes have previously occurred.
-	// Starts at a value set by the user in the GUI, then updates the values as
-	// we add more notes to the new score.
-	private static int prevNote1;
-	private static int prevNote2;
+	// probabilities associated with those notes. Scores are generated from,
+	// and the matrix table reads from, the current version in the store,
+	// which never changes. Imports and edits publish a new version, while
+	// scores may still be generating from the old one.
+	private static final ModelStore matrixStore = new ModelStore();
 
 	// JFrame used to view whichever panel we have visible.
 	private static JFrame frame;
@@ -112,6 +115,15 @@ public class MainFrame implements JMC {
 	private static int FIRST_NOTE = 60;
 	private static int SECOND_NOTE = 60;
 
+	// Order of the matrix built when files are first imported, i.e. the
+	// longest context of previous notes that is counted. Files imported
+	// afterwards are counted with the order of the existing matrix.
+	private static int MODEL_ORDER = 4;
+
+	// Number of previous notes used to pick each note of the newly generated
+	// score. Can't be higher than the order of the matrix.
+	private static int ORDER = NoteMatrix.DEFAULT_ORDER;
+
 	// Array of integers used to store the composition of phrases in the score.
 	// An example of how this could look is {1, 2, 1, 1, 3}, meaning unique
 	// phrase 1 is added to the score, then unique phrase 2, then phrase 1 is
@@ -121,8 +133,17 @@ public class MainFrame implements JMC {
 	public static int[] globalPattern;
 
 	public static void main(String[] args) {
-		Score s = new Score();
-		Read.midi(s, "imported/pachelbel_canon.mid");
+		// With --serve, scores are generated for other programs over HTTP.
+		// Otherwise if any arguments are given then scores are generated from
+		// the command line instead of starting the GUI.
+		if (args.length > 0 && args[0].equals(GenerationServer.OPTION)) {
+			GenerationServer.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		if (args.length > 0) {
+			BatchGenerator.main(args);
+			return;
+		}
 
 		// Starts the GUI
 		MainFrame mainFrame = new MainFrame();
@@ -176,161 +197,33 @@ public class MainFrame implements JMC {
 	/*
 	 * Method for creating a new score using the note matrix and parameters
 	 * specified by the user in ScorePanel. It is accessed by the score manager
-	 * and returns the new score.
+	 * and returns the new score. Each score is generated with its own
+	 * context, so nothing is shared between calls.
 	 */
 	public static Score createSong() {
-		// Creates a new score which we will add phrases to as we go
-		Score newScore = new Score();
-
-		// Sets the tempo of the score to that specified by the user in the
-		// ScorePanel panel
-		newScore.setTempo(TEMPO);
-
-		// Creates two new variables for storing the previous chain. We need two
-		// new variables as we need to update the values of the previous chain
-		// as we progress, rather than having a constant for it.
-		prevNote1 = FIRST_NOTE;
-		prevNote2 = SECOND_NOTE;
-
-		// Creates two new notes of a quarter length using the first two notes
-		// in our song
-		Note note1 = new Note(prevNote1, 0.5);
-		Note note2 = new Note(prevNote2, 0.5);
-
-		// Creates a phrase that will be the first two notes, then adds the
-		// notes we defined above to it.
-		Phrase firstPhrase = new Phrase(0);
-		firstPhrase.add(note1);
-		firstPhrase.add(note2);
-
-		// Creates a new array of phrases uses for storing unique phrases (i.e.
-		// [0] is phrase A, [1] = phrase B etc). Only need to store 26 due to
-		// program only accepting letters of the English alphabet
-		Phrase[] phraseArray = new Phrase[26];
-
-		// Creates the part that we will add phrases to as we go. Starts with
-		// the default instrument of PIANO at start time 0.
-		Part finalPart = new Part("", DEFAULT_INST, 0);
-
-		// This loop is used to create the phrases for the score. It creates one
-		// phrase for each unique letter in the composition string. For example,
-		// "AABAAC" would create 3 unique phrases
-		for (int i = 0; i < globalPattern.length; i++) {
-
-			// If we haven't let created a phrase for this unique character,
-			// then create one. The generateNextBar method also updates the
-			// prevNote variables accordingly.
-			if (phraseArray[globalPattern[i]] == null) {
-				phraseArray[globalPattern[i]] = generateNextBar();
-			} else {
-				// Else we just update prevNotes, so that if a new phrase is
-				// created afterwards, it takes into account the correct
-				// previous notes.
-				Note[] noteArray = phraseArray[globalPattern[i]].getNoteArray();
-
-				// If there's only one note in the previous phrase, then don't
-				// set prevNote1 as it does not exist.
-				if (noteArray.length > 1) {
-					prevNote1 = noteArray[noteArray.length - 2].getPitch();
-				}
-
-				// And update the previous note for further generation.
-				prevNote2 = noteArray[noteArray.length - 1].getPitch();
-			}
-
-			// Copies the phrase to be added into a new phrase so that we can
-			// adjust the start time without editing the phrase we have stored
-			Phrase adjustPhrase = phraseArray[globalPattern[i]].copy();
-
-			// Adjusts the start time of the newly added phrase so it starts at
-			// the correct bar
-			adjustPhrase.setStartTime(firstPhrase.getEndTime() + (i * BAR_LENGTH));
-
-			// Then adds the phrase to the part to be added to the score later.
-			finalPart.addPhrase(adjustPhrase);
-		}
-
-		// Adds the first phrase to the finalPart
-		finalPart.addPhrase(firstPhrase);
-
-		// And finally adds the final part to the score...
-		newScore.addPart(finalPart);
-
-		// Which is then returned.
-		return newScore;
+		ProbabilityMatrix matrix = matrixStore.getModel();
+		GenerationContext context = new GenerationContext(FIRST_NOTE, SECOND_NOTE, globalPattern, TEMPO,
+				DEFAULT_INST, ThreadLocalRandomSource.INSTANCE, Math.min(ORDER, matrix.getOrder()));
+		return new GenerationEngine(matrix).createSong(context);
 	}
 
 	/*
-	 * This method uses logic and the note matrix in order to generate the
-	 * phrases which make up the final score.
+	 * Method for creating a new score using the note matrix and the settings
+	 * in the given context rather than the ones specified in ScorePanel, so
+	 * any number of threads can create scores with different settings at
+	 * once. Used by GenerationServer.
 	 */
-	public static Phrase generateNextBar() {
-		// Creates a new phrase which we will gradually add notes to
-		Phrase bar = new Phrase();
-
-		// Double for storing the cumulative time taken up by the bar we are
-		// creating
-		double totalTime = 0;
-
-		// Counter for keeping track of how many times the same note has been
-		// generated in a row
-		int timesGeneratedSameNote = 0;
-
-		// Loop that repeats until we have exceeded the alloted time for the bar
-		while (totalTime < BAR_LENGTH) {
-
-			// Generates a new note using probabilities from the matrix when
-			// given the two previous notes
-			Note newNote = noteMatrix.getNextNote(prevNote1, prevNote2);
-
-			// If the bar is more than three quarters complete in terms of time,
-			// then...
-			if (totalTime > (BAR_LENGTH / 4) * 3) {
-				timesGeneratedSameNote = 0;
-
-				// Adjust the duration of the note so that it ends on by the end
-				// of the bar
-				newNote.setRhythmValue(BAR_LENGTH - totalTime);
-
-				// ...Update the previous note values
-				prevNote1 = prevNote2;
-				prevNote2 = newNote.getPitch();
-
-				// ...Then add the note to the bar
-				bar.addNote(newNote);
-
-				// ...And update the cumulative time counter
-				totalTime += newNote.getRhythmValue();
-
-			} else if (newNote.getRhythmValue() + totalTime <= BAR_LENGTH) {
-				// Else if the note will end before the bars allocated time, add
-				// the new note to the bar
-
-				timesGeneratedSameNote = 0;
-
-				// ...Update the previous note values
-				prevNote1 = prevNote2;
-				prevNote2 = newNote.getPitch();
-
-				// ...Then add the note to the bar
-				bar.addNote(newNote);
-
-				// ...And update the cumulative time counter
-				totalTime += newNote.getRhythmValue();
-			} else if (timesGeneratedSameNote > 5) {
-				timesGeneratedSameNote = 0;
-				newNote.setRhythmValue(BAR_LENGTH - totalTime);
-				prevNote1 = prevNote2;
-				prevNote2 = newNote.getPitch();
-				bar.addNote(newNote);
-				totalTime += newNote.getRhythmValue();
-			} else {
-				timesGeneratedSameNote++;
-			}
-		}
+	public static Score createSong(GenerationContext context) {
+		return getGenerationEngine().createSong(context);
+	}
 
-		// Return the completed phrase
-		return bar;
+	/*
+	 * Method for fetching an engine that generates from the current note
+	 * matrix. The engine can be used by any number of threads at once, and
+	 * keeps generating from the same copy of the matrix even if it is edited.
+	 */
+	public static GenerationEngine getGenerationEngine() {
+		return new GenerationEngine(matrixStore.getModel());
 	}
 
 	/*
@@ -339,72 +232,143 @@ public class MainFrame implements JMC {
 	 * ScorePanel in order to update the composition structure.
 	 */
 	public static void setGlobalPattern(String patternAlpha) {
-		// Resizes the globalPattern array to match the length of the new string
-		globalPattern = new int[patternAlpha.length()];
-
-		// Converts to lower case for simpler managing of ASCII values
-		patternAlpha = patternAlpha.toLowerCase();
+		globalPattern = GenerationContext.parsePattern(patternAlpha);
+	}
 
-		// Creates an array of chars from the given string, so we can deal with
-		// ASCII values instead
-		char[] patternChars = patternAlpha.toCharArray();
+	/*
+	 * Method used to populate the matrix with data from newly imported files.
+	 * Files are added to the existing matrix, so only the new files need to be
+	 * read rather than every file that has been imported. Each file is
+	 * counted as soon as it is read and then thrown away, so only the files
+	 * currently being read are ever in memory, and the matrix grows to fit
+	 * whatever pitches are found rather than being sized up front.
+	 */
+	public static void addToMatrix(String[] files) {
+		addToMatrix(files, null);
+	}
 
-		// Cycles through the new array of chars and adds each phrase as an int
-		// into the globalPattern array. For example,
-		// a string of "AABAAC" would produce the int array {1, 1, 2, 1, 1, 3}
-		for (int i = 0; i < patternChars.length; i++) {
-			globalPattern[i] = patternChars[i] - 97;
+	/*
+	 * Does the same as above, telling the listener (if not null) as each file
+	 * is read. The listener can cancel the import, in which case a
+	 * CancellationException is thrown and the matrix is left as it was. Runs
+	 * on the calling thread, so the GUI calls it from an ImportWorker.
+	 */
+	public static void addToMatrix(String[] files, MatrixTrainer.Listener listener) {
+		// Reads the new files and counts their chains, using every processor
+		final NoteMatrix imported = MatrixTrainer.train(files, Runtime.getRuntime().availableProcessors(), listener,
+				getTrainingOrder());
+
+		// If this is the first import then the new matrix is our note matrix,
+		// otherwise its counts are added to the existing one. Only the rows
+		// the new files changed are compiled again, and anything edited or
+		// imported while the files were being read is kept. The matrix grows
+		// to fit the highest pitch found as files are added.
+		if (matrixStore.getModel() == null) {
+			matrixStore.publish(imported);
+		} else {
+			matrixStore.edit(new ModelStore.Edit() {
+				@Override
+				public void apply(NoteMatrix matrix) {
+					matrix.addToMatrix(imported);
+				}
+			});
 		}
 	}
 
 	/*
-	 * Method for getting the highest pitch from all the imported files. This is
-	 * needed in order to size the Note Matrix
+	 * Returns the order files need to be counted with: the order of the
+	 * current matrix, or MODEL_ORDER if there isn't one yet
 	 */
-	public static int getHighestPitchFromImports(Score[] s) {
-		int highestPitch = 0;
-
-		// Loop that cycles through the imported scores and looks at each oft he
-		// scores highest pitch. If the highest pitch is higher than the
-		// previous highest, it is replaced.
-		for (int i = 0; i < s.length; i++) {
-			if (s[i].getHighestPitch() > highestPitch) {
-				highestPitch = s[i].getHighestPitch();
-			}
+	private static int getTrainingOrder() {
+		ProbabilityMatrix current = matrixStore.getModel();
+		if (current == null) {
+			return MODEL_ORDER;
 		}
-		return highestPitch;
+		return current.getOrder();
 	}
 
 	/*
-	 * Method used to populate the matrix with data from imported files.
+	 * Method for setting the order of the matrix built when files are first
+	 * imported. Has no effect on a matrix that has already been built.
 	 */
-	public static void addToMatrix(String[] files) {
-		// Creates a new array of scores for storing all the scores we imported
-		Score[] scoreArray = new Score[files.length];
-
-		// Cycles through each file we want to import
-		for (int i = 0; i < files.length; i++) {
-			Score score = new Score();
+	public static void setModelOrder(int order) {
+		MODEL_ORDER = order;
+	}
 
-			// Reads the score in
-			Read.midi(score, files[i]);
+	/*
+	 * Returns the order of the current note matrix, which is the highest
+	 * order a score can be generated with
+	 */
+	public static int getMatrixOrder() {
+		return matrixStore.getModel().getOrder();
+	}
 
-			// Then adds it to the array
-			scoreArray[i] = score;
-		}
+	/*
+	 * Method used to remove files that were previously imported from the
+	 * matrix. Exactly the notes that were counted for each file when it was
+	 * imported are removed, even if the file has been changed or deleted
+	 * since, and only the chains found in them are updated. Throws an
+	 * IllegalArgumentException if a file was never imported, or an
+	 * IllegalStateException if the notes counted for it can't be found, in
+	 * which case the matrix is left as it was.
+	 */
+	public static void removeFromMatrix(String[] files) {
+		removeFromMatrix(files, null);
+	}
 
-		// Creates the note matrix
-		noteMatrix = new NoteMatrix(getHighestPitchFromImports(scoreArray));
+	/*
+	 * Does the same as above, telling the listener (if not null) as the notes
+	 * of each file are found. The listener can cancel the removal, in which
+	 * case a CancellationException is thrown and the matrix is left as it
+	 * was. Runs on the calling thread, so the GUI calls it from an
+	 * ImportWorker.
+	 */
+	public static void removeFromMatrix(String[] files, MatrixTrainer.Listener listener) {
+		// Fetches the notes counted for the files, then removes them from the
+		// note matrix
+		final NoteMatrix removed = MatrixTrainer.countImported(files, matrixStore.getVersion().getImports(),
+				listener, getMatrixOrder());
+		matrixStore.edit(new ModelStore.Edit() {
+			@Override
+			public void apply(NoteMatrix matrix) {
+				matrix.removeFromMatrix(removed);
+			}
+		});
+	}
 
-		// Cycles through the array of scores and adds them to the note matrix
-		// we just created
-		for (int i = 0; i < scoreArray.length; i++) {
-			noteMatrix.addToMatrix(scoreArray[i]);
+	/*
+	 * Method for saving the note matrix, along with the list of files it was
+	 * built from and the probabilities edited by hand, so it can be loaded
+	 * again without reading every file and without losing the edits. If the
+	 * model was loaded from the same file, the saved file is opened again and
+	 * used in place of the one it replaced.
+	 */
+	public static void saveMatrix(File file) throws IOException {
+		ModelVersion current = matrixStore.getVersion();
+		boolean reopen = current.getModel() instanceof ModelFile
+				&& ((ModelFile) current.getModel()).getFile().getCanonicalFile().equals(file.getCanonicalFile());
+		if (current.getModel() instanceof CompiledModel) {
+			ModelFile.save((CompiledModel) current.getModel(), current.getImports(), current.getEdits(), file);
+		} else {
+			ModelFile.save(current.copyMatrix(), current.getEdits(), file);
 		}
+		if (reopen) {
+			// If something was published while saving, the newer version
+			// doesn't use the file and is kept
+			matrixStore.reopen(current, ModelFile.open(file));
+		}
+	}
 
-		// Once all files are imported, we need to ensure the probabilities of
-		// the matrix are up to date
-		noteMatrix.updateProbabilities();
+	/*
+	 * Method for loading a note matrix that was previously saved. The file is
+	 * used in place, so this is quick however large the model is. The edits
+	 * saved with it replace the current ones. Returns the list of files the
+	 * model was built from.
+	 */
+	public static String[] loadMatrix(File file) throws IOException {
+		ModelFile model = ModelFile.open(file);
+		matrixStore.publish(model);
+		return model.getImports();
 	}
 
 	/*
@@ -412,22 +376,15 @@ public class MainFrame implements JMC {
 	 * creating the note matrix table in MatrixPanel.
 	 */
 	public static int getNumOfPitches() {
-		return noteMatrix.getNumOfPitches();
+		return matrixStore.getModel().getNumOfPitches();
 	}
 
 	/*
-	 * Wrapper method for accessing the note matrix. Returns a vector that is
-	 * used to create a row in the matrix table. Row fetched corresponds to
-	 * chain [note1][note2].
+	 * Wrapper method for fetching the probability of note3 following the
+	 * chain note1, note2. Used by the matrix table to read a single cell.
 	 */
-	public static Vector getNoteRow(int note1, int note2) {
-		Vector prob = new Vector();
-
-		// Fetches row of probabilities from the note matrix for chain
-		// note1, note2
-		prob = noteMatrix.getProbabilityArray(note1, note2);
-
-		return prob;
+	public static double getProbability(int note1, int note2, int note3) {
+		return matrixStore.getModel().getProbability(note1, note2, note3);
 	}
 
 	/*
@@ -443,13 +400,79 @@ public class MainFrame implements JMC {
 		// probability of 60, 63 being followed by 55.
 		int[] noteSequence = importPanel.getNoteSequence(row, col);
 
-		// Calls the method to update the probability of the cell selected
-		noteMatrix.setNewProbability(noteSequence[0], noteSequence[1], noteSequence[2], newProb);
+		// Updates the probability of the cell selected. The edit is kept
+		// separately from the counts, so it is made again if files are
+		// imported or removed, and scores generating at the same time carry
+		// on using the previous version.
+		matrixStore.setProbability(noteSequence[0], noteSequence[1], noteSequence[2], newProb);
 
 		// Calls a custom repaint method for the table
 		importPanel.repaintRow(row);
 	}
 
+	/*
+	 * Methods for undoing the most recent edit made in the matrix table, and
+	 * redoing the most recently undone edit
+	 */
+	public static void undoEdit() {
+		matrixStore.undoEdit();
+	}
+
+	public static void redoEdit() {
+		matrixStore.redoEdit();
+	}
+
+	public static boolean canUndoEdit() {
+		return matrixStore.getVersion().getEdits().canUndo();
+	}
+
+	public static boolean canRedoEdit() {
+		return matrixStore.getVersion().getEdits().canRedo();
+	}
+
+	/*
+	 * Method for saving edits to the given journal from now on, and making
+	 * the edits already saved in it on top of the current ones
+	 */
+	public static void openEditJournal(File file) throws IOException {
+		matrixStore.setJournal(EditJournal.open(file, matrixStore.getVersion().getEdits()));
+	}
+
+	/*
+	 * Returns the journal kept next to a saved model for the edits made since
+	 * it was saved, e.g. "song.jmj" for "song.jmm"
+	 */
+	public static File getModelJournal(File model) {
+		String path = model.getPath();
+		if (path.endsWith("." + ModelFile.EXTENSION)) {
+			path = path.substring(0, path.length() - ModelFile.EXTENSION.length() - 1);
+		}
+		return new File(path + "." + EditJournal.EXTENSION);
+	}
+
+	/*
+	 * Method for keeping the edits made in the matrix table in the journal of
+	 * the given model, which has just been saved or loaded. Once saved, the
+	 * model holds every edit made so far, so its journal is started again
+	 * empty. Once loaded, the edits made since it was last saved are brought
+	 * back from its journal. If the journal can't be opened, edits are still
+	 * made but are only kept until the program closes.
+	 */
+	public static void useModelJournal(File model, boolean saved) {
+		// The previous journal is closed first, as it may be the same file
+		File journal = getModelJournal(model);
+		matrixStore.closeJournal();
+		try {
+			if (saved) {
+				matrixStore.setJournal(EditJournal.create(journal, matrixStore.getVersion().getEdits()));
+			} else {
+				openEditJournal(journal);
+			}
+		} catch (IOException e) {
+			System.err.println("Could not open edit journal " + journal + ": " + e.getMessage());
+		}
+	}
+
 	/*
 	 * Method used to set the values of the first two notes of the newly
 	 * generated score. This is set by ScorePanel by users.
@@ -459,12 +482,20 @@ public class MainFrame implements JMC {
 		SECOND_NOTE = second;
 	}
 
+	/*
+	 * Method used to set the number of previous notes used to pick each note
+	 * of the newly generated score. This is set by ScorePanel by users.
+	 */
+	public static void setOrder(int order) {
+		ORDER = order;
+	}
+
 	/*
 	 * Wrapper method used to return the total number of possibilities for the
 	 * given chain note1, note2 and returns it.
 	 */
 	public static int getNumOfNotesForChain(int note1, int note2) {
-		int total = noteMatrix.getNumOfNotesForChain(note1, note2);
+		int total = matrixStore.getModel().getNumOfNotesForChain(note1, note2);
 		return total;
 	}
 
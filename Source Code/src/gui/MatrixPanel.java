@@ -1,19 +1,19 @@
 package gui;
 
+import java.awt.CardLayout;
 import java.awt.Dimension;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
+import java.awt.GridLayout;
 import java.awt.Insets;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.util.Vector;
 import javax.swing.JButton;
 import javax.swing.JFrame;
-import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.table.AbstractTableModel;
 
 /**
  * @author Benjamin Henshall
@@ -22,6 +22,8 @@ import javax.swing.table.DefaultTableModel;
  */
 public class MatrixPanel extends JPanel {
 
+	private static final long serialVersionUID = 1L;
+
 	// Variable used to store how far we're currently zoomed in
 	double zoomFactor = 1;
 
@@ -39,6 +41,8 @@ public class MatrixPanel extends JPanel {
 	JButton backButton;
 	JButton zoomInButton;
 	JButton zoomOutButton;
+	JButton undoButton;
+	JButton redoButton;
 
 	// Table storing matrix
 	JTable table;
@@ -49,6 +53,20 @@ public class MatrixPanel extends JPanel {
 	// Scroll pane containing table
 	JScrollPane pane;
 
+	// Heatmap showing the whole matrix at once, and the button used to switch
+	// between it and the table
+	HeatmapPanel heatmap;
+	JButton heatmapButton;
+
+	// Panel holding both the table and the heatmap, only one of which is
+	// visible at a time
+	JPanel views;
+	CardLayout viewLayout;
+
+	// Names of the views in the views panel
+	private static final String TABLE_VIEW = "table";
+	private static final String HEATMAP_VIEW = "heatmap";
+
 	// ImportPanel passed through constructor as we need to make it visible if
 	// the user clicks back
 	ImportPanel importPanel;
@@ -65,10 +83,16 @@ public class MatrixPanel extends JPanel {
 		backButton = new JButton("Back");
 		add(backButton, c);
 
-		// Adds a hidden label for spacing reasons
-		c = MainFrame.generateNewGridBag(3, 1, 1, 1, GridBagConstraints.HORIZONTAL, new Insets(20, 40, 20, 120));
-		JLabel hiddenLabel = new JLabel("");
-		add(hiddenLabel, c);
+		// Gets a new GridBagConstraints for the undo and redo buttons, then
+		// creates and adds them to the JPanel side by side
+		c = MainFrame.generateNewGridBag(3, 1, 1, 1, GridBagConstraints.HORIZONTAL, new Insets(20, 40, 20, 40));
+		JPanel undoPanel = new JPanel(new GridLayout(1, 2, 10, 0));
+		undoButton = new JButton("Undo Edit");
+		redoButton = new JButton("Redo Edit");
+		undoPanel.add(undoButton);
+		undoPanel.add(redoButton);
+		add(undoPanel, c);
+		updateUndoButtons();
 
 		// Gets a new GridBagConstraints for the zoom in button, then creates
 		// and adds the button to the JPanel.
@@ -84,6 +108,12 @@ public class MatrixPanel extends JPanel {
 		// Zoom out button disabled by default as we start zoomed out
 		zoomOutButton.setEnabled(false);
 
+		// Gets a new GridBagConstraints for the heatmap button, then creates
+		// and adds the button to the JPanel.
+		c = MainFrame.generateNewGridBag(0, 1, 1, 1, GridBagConstraints.HORIZONTAL, new Insets(20, 40, 20, 10));
+		heatmapButton = new JButton("Heatmap");
+		add(heatmapButton, c);
+
 		// Gets a new GridBagConstraints for the table
 		c = MainFrame.generateNewGridBag(0, 0, 5, 1, GridBagConstraints.BOTH, new Insets(0, 0, 0, 0));
 		// Sets GridBagConstraints so the table has Y priority, allowing it to
@@ -108,8 +138,17 @@ public class MatrixPanel extends JPanel {
 		d.width = headerTable.getPreferredSize().width;
 		// Sets headerTable as the row header for table
 		scrollPane.setRowHeaderView(headerTable);
-		// Add the scroll pane to this panel.
-		add(scrollPane, c);
+
+		// Creates the heatmap. Its tiles aren't built until it's first shown.
+		heatmap = new HeatmapPanel(this, MainFrame.getNumOfPitches());
+
+		// Add the scroll pane and heatmap to this panel, starting with the
+		// table visible
+		viewLayout = new CardLayout();
+		views = new JPanel(viewLayout);
+		views.add(scrollPane, TABLE_VIEW);
+		views.add(heatmap, HEATMAP_VIEW);
+		add(views, c);
 
 		setUpActionListeners();
 	}
@@ -123,6 +162,8 @@ public class MatrixPanel extends JPanel {
 				// to import panel
 				setVisible(false);
 				frame.setContentPane(importPanel);
+				// Stops the heatmap from building in the background
+				heatmap.stopBuilding();
 				// Makes the import panel visible, then sets the window back to
 				// its normal size (Not maximised)
 				importPanel.setVisible(true);
@@ -130,6 +171,37 @@ public class MatrixPanel extends JPanel {
 			}
 		});
 
+		// Action listeners for the undo and redo buttons. Every cell of the
+		// table may have changed, so the whole table is redrawn.
+		undoButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				MainFrame.undoEdit();
+				editsChanged();
+			}
+		});
+
+		redoButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				MainFrame.redoEdit();
+				editsChanged();
+			}
+		});
+
+		// Action listener for heatmap button, which switches between the
+		// heatmap and the table
+		heatmapButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if (heatmap.isShowing()) {
+					showTable();
+				} else {
+					showHeatmap();
+				}
+			}
+		});
+
 		// Action listener for zoom in button
 		zoomInButton.addActionListener(new ActionListener() {
 			@Override
@@ -176,57 +248,51 @@ public class MatrixPanel extends JPanel {
 
 	/*
 	 * Method for filling the table with data. Includes configuring of the
-	 * header table.
+	 * header table. Neither table copies anything out of the matrix, they just
+	 * read each cell as it's displayed.
 	 */
 	public void fillTable() {
-		// Creates a new model which will be filled with data from our matrix
-		ValidatedTableModel model;
-		// Creates a new model for the row header table with no data and 2
-		// columns (note1, note2)
-		DefaultTableModel headerModel = new DefaultTableModel(0, 2);
-
-		// If we already have data in our tables model, then we should start
-		// from this model in order to keep settings the same. Else, we just
-		// instantiate it anew.
-		if (table != null) {
-			model = (ValidatedTableModel) table.getModel();
-		} else {
-			model = new ValidatedTableModel();
-		}
-
 		// Get number of pitches so we know how many columns and rows there
 		// should be
-		int numOfPitches = MainFrame.getNumOfPitches();
+		final int numOfPitches = MainFrame.getNumOfPitches();
 
-		// Loop that adds a new column for each pitch found
-		for (int i = 0; i < numOfPitches; i++) {
-			model.addColumn(i);
-		}
+		// Creates a model which reads its data from our matrix. There's a row
+		// for each possible combination/chain of notes.
+		ValidatedTableModel model = new ValidatedTableModel(numOfPitches);
 
-		// Nested loops that create n^2 loops where n is the number of pitches.
-		// This is a row for each possible combination/chain of notes.
-		for (int i = 0; i < numOfPitches; i++) {
-			for (int j = 0; j < numOfPitches; j++) {
-				// Retrieves the probabilities for the row i, j
-				Vector probs = MainFrame.getNoteRow(i, j);
-				// Then adds to the model
-				model.addRow(probs);
-				// Adds a new row to the headerTable model, that simply has the
-				// note sequence (i, j) over two cells
-				headerModel.addRow(new Object[] { i, j });
+		// Creates a model for the row header table with 2 columns (note1,
+		// note2), that simply has the note sequence of each row over two cells
+		AbstractTableModel headerModel = new AbstractTableModel() {
+			@Override
+			public int getRowCount() {
+				return numOfPitches * numOfPitches;
 			}
-		}
+
+			@Override
+			public int getColumnCount() {
+				return 2;
+			}
+
+			@Override
+			public Object getValueAt(int row, int column) {
+				if (column == 0) {
+					return row / numOfPitches;
+				}
+				return row % numOfPitches;
+			}
+		};
 
 		// Updates the table to use the new model
 		table = new JTable(model);
 
-		// Updates the header table to use the new model. Uses a custom model
-		// that does not allow editing of the cell
-		headerTable = new JTable(headerModel) {
-			public boolean isCellEditable(int row, int column) {
-				return false;
-			};
-		};
+		// Uses a custom cell renderer for every cell, allowing cells to be
+		// conditionally coloured dependent on their value. One renderer is
+		// shared by the whole table.
+		table.setDefaultRenderer(Object.class, new StatusCellRenderer());
+
+		// Updates the header table to use the new model. The header model
+		// does not allow editing of the cell
+		headerTable = new JTable(headerModel);
 
 		// Sets the column sizes of the headerTable to a smaller amount, so
 		// there's more space for the data
@@ -237,6 +303,45 @@ public class MatrixPanel extends JPanel {
 		resizeTable(model);
 	}
 
+	/*
+	 * Method for showing the heatmap in place of the table. The heatmap is
+	 * rebuilt each time so it includes any edits made in the table.
+	 */
+	public void showHeatmap() {
+		heatmap.rebuild();
+		viewLayout.show(views, HEATMAP_VIEW);
+		heatmapButton.setText("Table");
+
+		// The zoom buttons only apply to the table. The heatmap zooms with
+		// the mouse wheel.
+		zoomInButton.setEnabled(false);
+		zoomOutButton.setEnabled(false);
+	}
+
+	/*
+	 * Method for showing the table in place of the heatmap
+	 */
+	public void showTable() {
+		// The heatmap must stop reading the matrix before the table can edit
+		// it
+		heatmap.stopBuilding();
+		viewLayout.show(views, TABLE_VIEW);
+		heatmapButton.setText("Heatmap");
+		zoomInButton.setEnabled(zoomState < 5);
+		zoomOutButton.setEnabled(zoomState > 0);
+	}
+
+	/*
+	 * Method for opening a cell in the table, so it can be edited. Used when a
+	 * cell is double clicked in the heatmap.
+	 */
+	public void showCell(int row, int col) {
+		showTable();
+		// Selecting the cell also scrolls the table to it
+		table.changeSelection(row, col, false, false);
+		table.requestFocusInWindow();
+	}
+
 	/*
 	 * Method for resizing the table. Uses zoom factor to determine how
 	 * large/small the row height/column width should be
@@ -252,9 +357,6 @@ public class MatrixPanel extends JPanel {
 
 		// Loops through every column in order to resize them
 		for (int i = 0; i < model.getColumnCount(); i++) {
-			// Sets each column to use a custom cell renderer, allowing cells to
-			// be conditionally coloured dependent on their value
-			table.getColumnModel().getColumn(i).setCellRenderer(new StatusCellRenderer());
 			// Sets the width of the column in the main matrix table
 			table.getColumnModel().getColumn(i).setPreferredWidth(
 					(int) ((java.awt.Toolkit.getDefaultToolkit().getScreenSize().width / MainFrame.getNumOfPitches())
@@ -268,11 +370,11 @@ public class MatrixPanel extends JPanel {
 	 * 55.
 	 */
 	public int[] getNoteSequence(int row, int col) {
+		ValidatedTableModel model = (ValidatedTableModel) table.getModel();
 		int[] noteSequence = new int[3];
-		// Parses the value of the two cells in headerTable so we know what the
-		// chain is
-		noteSequence[0] = Integer.parseInt(headerTable.getValueAt(row, 0).toString());
-		noteSequence[1] = Integer.parseInt(headerTable.getValueAt(row, 1).toString());
+		// Works out the chain from the row
+		noteSequence[0] = model.getFirstNote(row);
+		noteSequence[1] = model.getSecondNote(row);
 		// And gets the pitch value we edited the probability for
 		noteSequence[2] = col;
 		return noteSequence;
@@ -284,19 +386,30 @@ public class MatrixPanel extends JPanel {
 	 * as the other probabilities change depending on the users edit
 	 */
 	public void repaintRow(int row) {
-		// Gets the table model
-		ValidatedTableModel model = (ValidatedTableModel) table.getModel();
-		// Removes the row so we can add the newer one
-		model.removeRow(row);
-
-		// Gets the value for the chain
-		int note1 = Integer.parseInt(headerTable.getValueAt(row, 0).toString());
-		int note2 = Integer.parseInt(headerTable.getValueAt(row, 1).toString());
-		// ...So we can get the row for that chain
-		Vector probs = MainFrame.getNoteRow(note1, note2);
+		// The model reads straight from the matrix, so the row only needs to
+		// be redrawn
+		((ValidatedTableModel) table.getModel()).fireTableRowsUpdated(row, row);
+		updateUndoButtons();
+	}
 
-		// Then insert the updated row back where it was removed
-		model.insertRow(row, probs);
+	/*
+	 * Method for redrawing the table, or rebuilding the heatmap if it's
+	 * showing, after an edit has been undone or redone
+	 */
+	private void editsChanged() {
+		((ValidatedTableModel) table.getModel()).fireTableDataChanged();
+		if (heatmap.isShowing()) {
+			heatmap.rebuild();
+		}
+		updateUndoButtons();
+	}
 
+	/*
+	 * Enables the undo and redo buttons only if there is something to undo
+	 * or redo
+	 */
+	private void updateUndoButtons() {
+		undoButton.setEnabled(MainFrame.canUndoEdit());
+		redoButton.setEnabled(MainFrame.canRedoEdit());
 	}
 }
@@ -16,6 +16,9 @@ import javax.swing.JTextField;
 import javax.swing.SwingConstants;
 
 import data.Instrument;
+import data.NoteMatrix;
+import data.RandomSource;
+import data.ThreadLocalRandomSource;
 import jm.music.data.Score;
 import jm.util.View;
 
@@ -25,6 +28,9 @@ import jm.util.View;
  *         Class used to display, manager and generate new scores.
  */
 public class ScorePanel extends JPanel {
+
+	private static final long serialVersionUID = 1L;
+
 	// Array of instrument objects, which store a constant (int) and the name.
 	// Used to populate a combo box
 	Instrument[] instrumentList = new Instrument[117];
@@ -35,13 +41,18 @@ public class ScorePanel extends JPanel {
 
 	// Comboboxes for changing the value of the first two notes of the new score
 	// and labels for them
-	JComboBox firstNote1;
-	JComboBox firstNote2;
+	JComboBox<Integer> firstNote1;
+	JComboBox<Integer> firstNote2;
 	JLabel firstNote1Label;
 	JLabel firstNote2Label;
 
 	// Combobox for changing which instrument is used
-	JComboBox instrumentCombo;
+	JComboBox<String> instrumentCombo;
+
+	// Combobox for changing how many previous notes are used to pick each
+	// note, and a label for it
+	JComboBox<Integer> orderCombo;
+	JLabel orderLabel;
 
 	// Buttons for generating a new score, randomising parameters, going back
 	// to the import panel and viewing the newly generated score
@@ -68,6 +79,10 @@ public class ScorePanel extends JPanel {
 	// Score used to store the generated score
 	Score score;
 
+	// Source of the random numbers used by the randomise button and when
+	// generating a new composition
+	RandomSource random = ThreadLocalRandomSource.INSTANCE;
+
 	public ScorePanel(JFrame j, ImportPanel importPan) {
 		importPanel = importPan;
 
@@ -97,7 +112,7 @@ public class ScorePanel extends JPanel {
 		// Gets a new GridBagConstraints for the first note1 combo box, then
 		// creates and adds it to the JPanel.
 		c = MainFrame.generateNewGridBag(1, 1, 1, 1, GridBagConstraints.HORIZONTAL, new Insets(30, 40, 0, 120));
-		firstNote1 = new JComboBox();
+		firstNote1 = new JComboBox<Integer>();
 		// Loops through the number of pitches, adding each pitch to the combo
 		// box
 		for (int i = 0; i < MainFrame.getNumOfPitches(); i++) {
@@ -114,7 +129,7 @@ public class ScorePanel extends JPanel {
 		// Gets a new GridBagConstraints for the first note2 combo box, then
 		// creates and adds it to the JPanel.
 		c = MainFrame.generateNewGridBag(3, 1, 1, 1, GridBagConstraints.HORIZONTAL, new Insets(30, 40, 0, 120));
-		firstNote2 = new JComboBox();
+		firstNote2 = new JComboBox<Integer>();
 		// Loops through the number of pitches, adding each pitch to the combo
 		// box
 		for (int i = 0; i < MainFrame.getNumOfPitches(); i++) {
@@ -125,7 +140,7 @@ public class ScorePanel extends JPanel {
 		// Gets a new GridBagConstraints for the instrument combo box, then
 		// creates and adds it to the JPanel.
 		c = MainFrame.generateNewGridBag(4, 2, 2, 1, GridBagConstraints.HORIZONTAL, new Insets(30, 40, 0, 120));
-		instrumentCombo = new JComboBox();
+		instrumentCombo = new JComboBox<String>();
 		// Loops through the instrument list array, adding each instruments name
 		// to the combo box
 		for (int i = 0; i < instrumentList.length; i++) {
@@ -181,6 +196,26 @@ public class ScorePanel extends JPanel {
 		compLabel = new JLabel("Composition: ");
 		add(compLabel, c);
 
+		// Gets a new GridBagConstraints for the order label, then creates and
+		// adds the label to the JPanel.
+		c = MainFrame.generateNewGridBag(0, 4, 1, 1, GridBagConstraints.HORIZONTAL, new Insets(30, 40, 0, 10));
+		orderLabel = new JLabel("Order: ");
+		add(orderLabel, c);
+
+		// Gets a new GridBagConstraints for the order combo box, then creates
+		// and adds it to the JPanel.
+		c = MainFrame.generateNewGridBag(1, 4, 1, 1, GridBagConstraints.HORIZONTAL, new Insets(30, 10, 0, 120));
+		orderCombo = new JComboBox<Integer>();
+		// Loops through every order the matrix can generate from, adding each
+		// to the combo box
+		for (int i = 1; i <= MainFrame.getMatrixOrder(); i++) {
+			orderCombo.addItem(i);
+		}
+		// Sets the order combo selection to the default order, if the matrix
+		// has it
+		orderCombo.setSelectedIndex(Math.min(NoteMatrix.DEFAULT_ORDER, MainFrame.getMatrixOrder()) - 1);
+		add(orderCombo, c);
+
 		// Gets a new GridBagConstraints for the view score button, then creates
 		// and adds the button to the JPanel.
 		c = MainFrame.generateNewGridBag(4, 0, 2, 1, GridBagConstraints.HORIZONTAL, new Insets(30, 40, 0, 120));
@@ -267,6 +302,9 @@ public class ScorePanel extends JPanel {
 					// Update the first notes for generating a score from the
 					// note matrix
 					MainFrame.setFirstNotes(firstNote1.getSelectedIndex(), firstNote2.getSelectedIndex());
+					// Update the number of previous notes used to pick each
+					// note
+					MainFrame.setOrder(orderCombo.getSelectedIndex() + 1);
 					// And update the pattern being used to generate the score
 					MainFrame.setGlobalPattern(compositionField.getText());
 					// Then create a new score
@@ -308,13 +346,13 @@ public class ScorePanel extends JPanel {
 			public void actionPerformed(ActionEvent e) {
 				// Generates a new random value between 0 and the number of
 				// instruments in the list
-				int rand = (int) (Math.random() * instrumentList.length);
+				int rand = random.nextInt(instrumentList.length);
 				// Then sets the combo box to the instrument we randomised
 				instrumentCombo.setSelectedIndex(rand);
 
 				// Generates a new random number between 50 and 200, for the
 				// tempo
-				rand = (int) (50 + Math.random() * (200 - 50));
+				rand = 50 + random.nextInt(200 - 50);
 				// Then updates the tempo text box with the randomised value
 				tempoField.setText(Integer.toString(rand));
 
@@ -326,11 +364,11 @@ public class ScorePanel extends JPanel {
 				while (!found) {
 					// Generates a new random number within the range of 0 to
 					// maximum pitch in imports
-					rand = (int) (Math.random() * MainFrame.getNumOfPitches());
+					rand = random.nextInt(MainFrame.getNumOfPitches());
 					// Creates a new arraylist which is used to store all the
 					// pitches that we haven't checked in this iteration of the
 					// loop.
-					ArrayList possibleNotes = new ArrayList(MainFrame.getNumOfPitches());
+					ArrayList<Integer> possibleNotes = new ArrayList<Integer>(MainFrame.getNumOfPitches());
 					// Fills the loop with the pitches
 					for (int i = 0; i < MainFrame.getNumOfPitches(); i++) {
 						possibleNotes.add(i);
@@ -345,7 +383,7 @@ public class ScorePanel extends JPanel {
 						// Generates a new random number between 0 and the
 						// current size of the possible notes array. This size
 						// decreases over every iteration of the for loop
-						int secondRand = (int) (Math.random() * possibleNotes.size());
+						int secondRand = random.nextInt(possibleNotes.size());
 						// If the sequence of notes has at least one note it may
 						// generate then we have found a valid chain
 						if (MainFrame.getNumOfNotesForChain(rand, secondRand) > 0) {
@@ -429,7 +467,7 @@ public class ScorePanel extends JPanel {
 		String newPattern = "";
 		// Generates a new random number between 5 and 13, which will be used as
 		// the length of our new pattern
-		int randLength = (int) (5 + Math.random() * (13 - 5));
+		int randLength = 5 + random.nextInt(13 - 5);
 
 		// Char array used to store the individual characters of our new
 		// composition
@@ -440,7 +478,7 @@ public class ScorePanel extends JPanel {
 		for (int i = 0; i < randLength; i++) {
 			// Generates a random number between 65 and 90 (Between a and z in
 			// ASCII values)
-			char randPhrase = (char) (65 + Math.random() * (90 - 65));
+			char randPhrase = (char) (65 + random.nextInt(90 - 65));
 			// Then assigns it to the ith element in our char array
 			patternChars[i] = randPhrase;
 		}
@@ -11,45 +11,94 @@ import javax.swing.table.DefaultTableCellRenderer;
  * @author Benjamin Henshall
  *
  *         Custom cell renderer for colouring in a cell conditionally based on
- *         its value
+ *         its value. The colours are all created up front, and the value is
+ *         read as a primitive rather than parsed from text, so painting a cell
+ *         doesn't create any new objects. A single renderer is shared by every
+ *         cell of the table.
  */
 public class StatusCellRenderer extends DefaultTableCellRenderer {
+
+	private static final long serialVersionUID = 1L;
+
+	// Default colours, from a probability of 0 (red) up to a large
+	// probability (green)
+	private static final Color[] DEFAULT_PALETTE = { new Color(255, 0, 0), new Color(191, 64, 0),
+			new Color(122, 122, 0), new Color(64, 191, 0), new Color(0, 255, 0) };
+
+	// Text shown for a probability of 0, which most cells have
+	private static final String ZERO_TEXT = Double.toString(0.0);
+
+	// Colours used for each range of probabilities. palette[0] is used for a
+	// probability of 0, and the rest are spread evenly between 0 and 1.
+	private final Color[] palette;
+
+	public StatusCellRenderer() {
+		this(DEFAULT_PALETTE);
+	}
+
+	/*
+	 * Creates a renderer using the given colours. The first colour is used
+	 * for cells with a probability of 0, and the range above 0 is split evenly
+	 * between the remaining colours, so at least two must be given.
+	 */
+	public StatusCellRenderer(Color[] palette) {
+		if (palette.length < 2) {
+			throw new IllegalArgumentException("Palette must have at least two colours");
+		}
+		this.palette = palette.clone();
+	}
+
+	/*
+	 * Returns the colour used for the given probability
+	 */
+	public Color getColour(double prob) {
+		// A probability of 0 (or less) uses the first colour
+		if (prob <= 0) {
+			return palette[0];
+		}
+		// Otherwise the range above 0 is split evenly between the other
+		// colours, so with the default palette anything above 0.75 is green,
+		// above 0.5 is darker green and so on
+		int buckets = palette.length - 1;
+		int index = (int) Math.ceil(prob * buckets);
+		if (index > buckets) {
+			index = buckets;
+		}
+		return palette[index];
+	}
+
 	@Override
 	public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus,
 			int row, int col) {
 
-		// Creates a new JLabel which will be the text in our cell
+		// The renderer itself is the JLabel which will be the text in our cell
 		JLabel l = (JLabel) super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, col);
 
-		// Get the status for the current row
-		ValidatedTableModel tableModel = (ValidatedTableModel) table.getModel();
-
-		// Get the probability of the cell currently being rendered
-		double prob = Double.parseDouble(tableModel.getValueAt(row, col).toString());
-		// Color for storing which color we are using
-		Color color;
-
-		// If the probability is large
-		if (prob > 0.75) {
-			// Use color green
-			color = new Color(0, 255, 0);
-		} else if (prob > 0.5) {
-			// Else if probability is medium, set to darker green
-			color = new Color(64, 191, 0);
-		} else if (prob > 0.25) {
-			// Else if probability is low, set to green-reddish
-			color = new Color(122, 122, 0);
-		} else if (prob > 0) {
-			// Else if probability is red, set to dark red
-			color = new Color(191, 64, 0);
-		} else {
-			color = new Color(255, 0, 0);
+		// Get the probability of the cell currently being rendered. The model
+		// gives us a number, so it doesn't need to be parsed.
+		double prob = 0;
+		if (value instanceof Number) {
+			prob = ((Number) value).doubleValue();
 		}
 
-		// Set background of the label to the color we just decided on
-		l.setBackground(color);
+		// Set background of the label to the colour for this probability
+		l.setBackground(getColour(prob));
 
 		// Return the JLabel which renders the cell.
 		return l;
 	}
+
+	/*
+	 * Sets the text of the cell. Most cells have a probability of 0, so the
+	 * same text is reused for all of them rather than creating a new string
+	 * for every cell.
+	 */
+	@Override
+	protected void setValue(Object value) {
+		if (value instanceof Number && ((Number) value).doubleValue() == 0) {
+			setText(ZERO_TEXT);
+		} else {
+			super.setValue(value);
+		}
+	}
 }
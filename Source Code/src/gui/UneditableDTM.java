@@ -10,6 +10,8 @@ import javax.swing.table.DefaultTableModel;
  */
 public class UneditableDTM extends DefaultTableModel {
 
+	private static final long serialVersionUID = 1L;
+
 	public UneditableDTM(Object[][] data, Object[] columns) {
 		// Calls the constructor of DefaultTableModel
 		super(data, columns);
@@ -1,18 +1,94 @@
 package gui;
 
 import javax.swing.JOptionPane;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.table.AbstractTableModel;
 
 /**
  * @author Benjamin Henshall
  *
  *         Custom table model used for the matrix table. Prevents users from
- *         entering an incorrect entry into the table
+ *         entering an incorrect entry into the table. Nothing is copied out of
+ *         the matrix: each cell is read from the matrix when the table asks for
+ *         it, so only the rows on screen are ever looked at and the table takes
+ *         up no memory of its own, however many pitches there are.
+ *
+ *         Row r of the table is the chain (r / numOfPitches, r %
+ *         numOfPitches), and column c is the pitch following it.
  */
-public class ValidatedTableModel extends DefaultTableModel {
+public class ValidatedTableModel extends AbstractTableModel {
+
+	private static final long serialVersionUID = 1L;
+
+	// Boxed probability of 0, returned for every empty cell so that reading
+	// the many empty cells doesn't create a new object each time
+	private static final Double ZERO = 0.0;
+
+	// Number of pitches in the matrix, which is both the number of columns
+	// and the number of different pitches in each chain
+	private final int numOfPitches;
+
+	public ValidatedTableModel(int numOfPitches) {
+		this.numOfPitches = numOfPitches;
+	}
+
+	/*
+	 * One row for every possible chain of two pitches
+	 */
+	@Override
+	public int getRowCount() {
+		return numOfPitches * numOfPitches;
+	}
+
+	@Override
+	public int getColumnCount() {
+		return numOfPitches;
+	}
+
+	/*
+	 * Columns are named after the pitch they represent
+	 */
+	@Override
+	public String getColumnName(int column) {
+		return Integer.toString(column);
+	}
+
+	/*
+	 * Returns the first note of the chain in the given row
+	 */
+	public int getFirstNote(int row) {
+		return row / numOfPitches;
+	}
+
+	/*
+	 * Returns the second note of the chain in the given row
+	 */
+	public int getSecondNote(int row) {
+		return row % numOfPitches;
+	}
+
+	/*
+	 * Returns the probability of the column's pitch following the row's chain
+	 */
+	public double getProbabilityAt(int row, int column) {
+		return MainFrame.getProbability(getFirstNote(row), getSecondNote(row), column);
+	}
+
+	@Override
+	public Object getValueAt(int row, int column) {
+		double prob = getProbabilityAt(row, column);
+		if (prob == 0) {
+			return ZERO;
+		}
+		return prob;
+	}
+
+	@Override
+	public boolean isCellEditable(int row, int column) {
+		return true;
+	}
 
-	// Overides the setValueAt method in DefaultTableModel, which is used
-	// whenever a change is attempted in the table
+	// Overides the setValueAt method, which is used whenever a change is
+	// attempted in the table
 	@Override
 	public void setValueAt(Object aValue, int row, int column) {
 		// Try catch statement to check if the value the user entered is a
@@ -22,14 +98,12 @@ public class ValidatedTableModel extends DefaultTableModel {
 			// number.
 			double prob = Double.parseDouble(aValue.toString());
 			// If the probability is too large (More than 1, due to the sum
-			// probability of a row having to equal 1) then we do nothing
-			if (prob <= 1) {
-				// But if it is equal to or below 1, then call the setValueAt
-				// method in the DefaultTableModel
-				super.setValueAt(prob, row, column);
-				// Then updated the probability of the matrix to the new value
-				// the user entered. This method also edits other probabilities
-				// to keep the row sum at 1.
+			// probability of a row having to equal 1) or negative then we do
+			// nothing
+			if (prob >= 0 && prob <= 1) {
+				// Updates the probability of the matrix to the new value the
+				// user entered. This method also edits other probabilities to
+				// keep the row sum at 1, and repaints the row.
 				MainFrame.setNewProbability(prob, row, column);
 			}
 		} catch (NumberFormatException E) {